@@ -0,0 +1,75 @@
+package benchmarks;
+
+import com.mongodb.BasicDBObject;
+import crawler.appbrain.AppBrainInfo;
+import crawler.appinfo.AppInfo;
+import org.bson.Document;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static utils.WebDriverUtils.cleanupText;
+import static utils.WebDriverUtils.trimText;
+
+/**
+ * Cost of turning crawled records into documents and of the text cleanup every extracted field goes through.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ConversionBenchmark {
+
+    private AppInfo appInfo;
+    private AppBrainInfo appBrainInfo;
+    private String whatsNew;
+    private String description;
+    private String paddedText;
+
+    @Setup
+    public void setup() {
+        appInfo = Fixtures.appInfo(Fixtures.APP_ID);
+        appBrainInfo = Fixtures.appBrainInfo(Fixtures.APP_ID);
+        whatsNew = "  What's New   " + appInfo.getWhatsNew() + "  Read more ";
+        description = "  " + appInfo.getDescription() + " Read more";
+        paddedText = "\n    " + appInfo.getAuthor() + "   \n";
+    }
+
+    @Benchmark
+    public Document appInfoConvertToDocument() {
+        return appInfo.convertToDocument();
+    }
+
+    @Benchmark
+    public List<BasicDBObject> reviewsPerStarDocument() {
+        return appInfo.getReviewsPerStarDocument();
+    }
+
+    @Benchmark
+    public Document appBrainConvertToDocument() {
+        return appBrainInfo.convertToDocument();
+    }
+
+    @Benchmark
+    public List<BasicDBObject> commentsTagDocument() {
+        return appBrainInfo.getCommentsTagDocument();
+    }
+
+    @Benchmark
+    public String cleanupWhatsNew() {
+        return cleanupText(whatsNew, new String[]{"What's New", "Whats new"}, "Read more");
+    }
+
+    @Benchmark
+    public String cleanupDescription() {
+        return cleanupText(description, "", "Read more");
+    }
+
+    @Benchmark
+    public String trim() {
+        return trimText(paddedText, "");
+    }
+}
@@ -0,0 +1,61 @@
+package benchmarks;
+
+import de.flapdoodle.embed.mongo.MongodExecutable;
+import de.flapdoodle.embed.mongo.MongodProcess;
+import de.flapdoodle.embed.mongo.MongodStarter;
+import de.flapdoodle.embed.mongo.config.IMongodConfig;
+import de.flapdoodle.embed.mongo.config.MongodConfigBuilder;
+import de.flapdoodle.embed.mongo.config.Net;
+import de.flapdoodle.embed.mongo.distribution.Version;
+import de.flapdoodle.embed.process.runtime.Network;
+import utils.EnvReader;
+
+import java.io.IOException;
+
+/**
+ * A throwaway mongod for the persistence benchmarks. With MONGO_HOST set, that server is used instead, e.g. to
+ * measure against the production topology.
+ */
+public final class EmbeddedMongo {
+    private final String host;
+    private final int port;
+    private MongodExecutable executable;
+    private MongodProcess process;
+
+    private EmbeddedMongo(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    public static EmbeddedMongo start() throws IOException {
+        String host = EnvReader.readEnvVariable("MONGO_HOST");
+        if (host != null && !host.isEmpty()) {
+            return new EmbeddedMongo(host, EnvReader.readIntEnvVariable("MONGO_PORT", 27017));
+        }
+
+        int port = Network.getFreeServerPort();
+        IMongodConfig config = new MongodConfigBuilder()
+                .version(Version.Main.PRODUCTION)
+                .net(new Net("localhost", port, Network.localhostIsIPv6()))
+                .build();
+        EmbeddedMongo mongo = new EmbeddedMongo("localhost", port);
+        mongo.executable = MongodStarter.getDefaultInstance().prepare(config);
+        mongo.process = mongo.executable.start();
+        return mongo;
+    }
+
+    public String host() {
+        return host;
+    }
+
+    public int port() {
+        return port;
+    }
+
+    public void stop() {
+        if (process != null) {
+            process.stop();
+            executable.stop();
+        }
+    }
+}
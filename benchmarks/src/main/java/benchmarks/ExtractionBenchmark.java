@@ -0,0 +1,74 @@
+package benchmarks;
+
+import crawler.appbrain.AppBrainInfo;
+import crawler.appbrain.AppBrainPage;
+import crawler.appinfo.AppInfo;
+import crawler.appinfo.AppInfoPage;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.openjdk.jmh.annotations.*;
+import utils.HtmlExtractor;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process extraction of the saved Play Store and AppBrain pages, split into parsing, selecting and mapping so a
+ * regression can be pinned to one step.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ExtractionBenchmark {
+
+    private String appInfoHtml;
+    private String appBrainHtml;
+    private Document appInfoPage;
+    private Document appBrainPage;
+    private Map<String, Object> appInfoValues;
+    private Map<String, Object> appBrainValues;
+
+    @Setup
+    public void setup() {
+        appInfoHtml = Fixtures.html("appinfo.html");
+        appBrainHtml = Fixtures.html("appbrain.html");
+        appInfoPage = Jsoup.parse(appInfoHtml, Fixtures.APP_URL);
+        appBrainPage = Jsoup.parse(appBrainHtml, "https://www.appbrain.com/app/" + Fixtures.APP_ID);
+        appInfoValues = HtmlExtractor.extract(appInfoPage, AppInfoPage.SELECTORS);
+        appBrainValues = HtmlExtractor.extract(appBrainPage, AppBrainPage.SELECTORS);
+    }
+
+    @Benchmark
+    public Document parseAppInfoPage() {
+        return Jsoup.parse(appInfoHtml, Fixtures.APP_URL);
+    }
+
+    @Benchmark
+    public Map<String, Object> selectAppInfoFields() {
+        return HtmlExtractor.extract(appInfoPage, AppInfoPage.SELECTORS);
+    }
+
+    @Benchmark
+    public AppInfo mapAppInfo() {
+        return AppInfoPage.toAppInfo(appInfoValues, Fixtures.APP_URL);
+    }
+
+    @Benchmark
+    public AppInfo extractAppInfo() {
+        Document page = Jsoup.parse(appInfoHtml, Fixtures.APP_URL);
+        return AppInfoPage.toAppInfo(HtmlExtractor.extract(page, AppInfoPage.SELECTORS), Fixtures.APP_URL);
+    }
+
+    @Benchmark
+    public Map<String, Object> selectAppBrainFields() {
+        return HtmlExtractor.extract(appBrainPage, AppBrainPage.SELECTORS);
+    }
+
+    @Benchmark
+    public AppBrainInfo mapAppBrainInfo() {
+        return AppBrainPage.toAppBrainInfo(appBrainValues, Fixtures.APP_ID);
+    }
+}
@@ -0,0 +1,88 @@
+package benchmarks;
+
+import crawler.appbrain.AppBrainInfo;
+import crawler.appinfo.AppInfo;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Saved pages and populated records shared by the benchmarks, sized like real crawl results.
+ */
+final class Fixtures {
+    static final String APP_URL = "https://play.google.com/store/apps/details?id=com.example.planner";
+    static final String APP_ID = "com.example.planner";
+
+    private Fixtures() {
+    }
+
+    static String html(String name) {
+        return Resources.text("/fixtures/" + name);
+    }
+
+    static AppInfo appInfo(String appId) {
+        AppInfo appInfo = new AppInfo("Task Planner Pro", appId, appId);
+        appInfo.setLastAppInfoCrawlTimestamp(System.currentTimeMillis());
+        appInfo.setPrice(2.49);
+        appInfo.setStarRating(4.4);
+        appInfo.setCategory("Productivity");
+        appInfo.setBadge("Top Developer");
+        appInfo.setAuthor("Example Labs");
+        appInfo.setTotalNrOfReviews(123456);
+        appInfo.setReviewsPerStars(new long[]{8140, 4120, 9874, 21310, 80012});
+        appInfo.setDescription(repeat("Keep track of every task, list and reminder across all your devices. ", 30));
+        appInfo.setWhatsNew("Sync fixes and a new calendar widget.");
+        appInfo.setLastUpdates("July 14, 2017");
+        appInfo.setSize("12M");
+        appInfo.setInstalls("1,000,000 - 5,000,000");
+        appInfo.setCurrentVersion("5.2.1");
+        appInfo.setRequiredAndroidVersion("4.1 and up");
+        appInfo.setContentRating("Everyone");
+        appInfo.setPermissions("Location Storage Camera Contacts Other");
+        appInfo.setInAppProducts("$0.99 - $9.99 per item");
+        appInfo.setAppUrl(APP_URL);
+        appInfo.setUserComments(repeat("Works fine on my phone, the widget still drains battery overnight. ", 40));
+        appInfo.setOffersInAppPurchases("Offers in-app purchases");
+
+        Set<String> similarApps = new HashSet<String>();
+        for (int i = 0; i < 60; i++) {
+            similarApps.add("com.example.similar" + i);
+        }
+        appInfo.setSimilarApps(similarApps);
+        appInfo.setSimilarAppsUrl("https://play.google.com/store/apps/collection/similar_apps_GIDa");
+        return appInfo;
+    }
+
+    static AppBrainInfo appBrainInfo(String appId) {
+        AppBrainInfo appBrainInfo = new AppBrainInfo(appId);
+        appBrainInfo.setLastAppBrainCrawlTimestamp(System.currentTimeMillis());
+        appBrainInfo.setRanking("#37 in Productivity");
+        appBrainInfo.setSize("12.4MB");
+        appBrainInfo.setLibraries(14);
+        appBrainInfo.setAge("3 years old");
+
+        Map<String, String> commentsTag = new HashMap<String, String>();
+        commentsTag.put(AppBrainInfo.COMMENTS_TAG, "easy reminders sync widget calendar lists sharing simple clean fast ");
+        commentsTag.put(AppBrainInfo.POSITIVE_COMMENT_TAG, "love useful great design reliable best planner organized ");
+        commentsTag.put(AppBrainInfo.NEGATIVE_COMMENT_TAG, "battery crash ads slow sync login ");
+        appBrainInfo.setCommentsTag(commentsTag);
+
+        Map<String, String> permissions = new HashMap<String, String>();
+        permissions.put("Location", "approximate location (network-based), precise location (GPS and network-based)");
+        permissions.put("Storage", "read the contents of your USB storage, modify or delete the contents of your USB storage");
+        permissions.put("Camera", "take pictures and videos");
+        permissions.put("Contacts", "read your contacts, find accounts on the device");
+        appBrainInfo.setResourcePermissions(permissions);
+        return appBrainInfo;
+    }
+
+    private static String repeat(String text, int times) {
+        StringBuilder sb = new StringBuilder(text.length() * times);
+        for (int i = 0; i < times; i++) {
+            sb.append(text);
+        }
+        return sb.toString();
+    }
+}
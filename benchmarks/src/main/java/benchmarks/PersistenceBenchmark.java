@@ -0,0 +1,111 @@
+package benchmarks;
+
+import crawler.appbrain.AppBrainInfo;
+import crawler.appinfo.AppInfo;
+import db.DBWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write paths of DBWriter against a real mongod, scores are per record. Every invocation writes one batch and
+ * flushes it, so the bulk size decides how many round-trips a batch costs.
+ *
+ * App infos and AppBrain infos are written to the same pool of ids over and over, which is the recrawl case;
+ * app ids are always new, which is the discovery case.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersistenceBenchmark {
+    private static final int BATCH = 100;
+    private static final int KNOWN_APPS = 10000;
+
+    @Param({"1", "100"})
+    public int bulkSize;
+
+    @Param({"false", "true"})
+    public boolean changeDetection;
+
+    private EmbeddedMongo mongo;
+    private DBWriter dbWriter;
+    private List<List<AppInfo>> appInfoBatches;
+    private List<List<AppBrainInfo>> appBrainBatches;
+    private int nextBatch;
+    private long nextNewId;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        mongo = EmbeddedMongo.start();
+        String collection = "apps_" + bulkSize + "_" + changeDetection;
+        dbWriter = new DBWriter(mongo.host(), mongo.port(), "benchmarks", collection, bulkSize, 0);
+        if (changeDetection) {
+            dbWriter.enableChangeDetection();
+        }
+
+        appInfoBatches = new ArrayList<List<AppInfo>>();
+        appBrainBatches = new ArrayList<List<AppBrainInfo>>();
+        for (int batch = 0; batch < KNOWN_APPS / BATCH; batch++) {
+            List<AppInfo> appInfos = new ArrayList<AppInfo>(BATCH);
+            List<AppBrainInfo> appBrainInfos = new ArrayList<AppBrainInfo>(BATCH);
+            for (int i = 0; i < BATCH; i++) {
+                String appId = "com.example.app" + (batch * BATCH + i);
+                appInfos.add(Fixtures.appInfo(appId));
+                appBrainInfos.add(Fixtures.appBrainInfo(appId));
+            }
+            appInfoBatches.add(appInfos);
+            appBrainBatches.add(appBrainInfos);
+        }
+
+        // the recrawl benchmarks update existing documents
+        for (List<AppInfo> appInfos : appInfoBatches) {
+            dbWriter.writeAppInfosToDb(appInfos);
+        }
+        dbWriter.flush();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dbWriter.close();
+        mongo.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void writeAppInfos() {
+        dbWriter.writeAppInfosToDb(appInfoBatches.get(nextBatch()));
+        dbWriter.flush();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void writeAppBrainInfos() {
+        dbWriter.writeAppBrainInfos(appBrainBatches.get(nextBatch()));
+        dbWriter.flush();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void writeNewAppIds() {
+        Set<String> ids = new HashSet<String>();
+        for (int i = 0; i < BATCH; i++) {
+            ids.add("com.example.new" + nextNewId++);
+        }
+        dbWriter.writeAppIdsToDb(ids);
+        dbWriter.flush();
+    }
+
+    private int nextBatch() {
+        int batch = nextBatch;
+        nextBatch = (nextBatch + 1) % appInfoBatches.size();
+        return batch;
+    }
+}
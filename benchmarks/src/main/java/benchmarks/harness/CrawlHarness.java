@@ -0,0 +1,134 @@
+package benchmarks.harness;
+
+import benchmarks.EmbeddedMongo;
+import com.google.gson.GsonBuilder;
+import crawler.appbrain.AppBrainCrawler;
+import crawler.appids.AppIdsCrawler;
+import crawler.appinfo.AppsInfosCrawler;
+import crawler.similarapps.SimilarAppsCrawler;
+import metrics.Histogram;
+import metrics.Metrics;
+import utils.EnvReader;
+import utils.HostRateLimiter;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Runs full crawls offline: the crawlers run in this JVM against a FixtureSite, an embedded mongod and in-process
+ * HtmlUnit sessions, so neither a Selenium grid nor the live sites are needed.
+ *
+ * The crawlers are configured through system properties, which take precedence over the environment; anything
+ * set in the environment, e.g. CRAWL_WORKERS or APPINFO_ENGINE, is left as it is. Throughput and task latency
+ * quantiles of every crawler are logged and written as JSON to HARNESS_RESULT.
+ */
+public class CrawlHarness {
+    private static final Logger log = Logger.getLogger(CrawlHarness.class.getName());
+
+    public static void main(String[] args) throws IOException {
+        int apps = EnvReader.readIntEnvVariable("HARNESS_APPS", 1000);
+        int clusters = EnvReader.readIntEnvVariable("HARNESS_CLUSTERS", 50);
+        long latencyMillis = EnvReader.readLongEnvVariable("HARNESS_LATENCY_MILLIS", 50);
+        long jitterMillis = EnvReader.readLongEnvVariable("HARNESS_JITTER_MILLIS", 25);
+        double failureRate = EnvReader.readDoubleEnvVariable("HARNESS_FAILURE_RATE", 0.01);
+        long seed = EnvReader.readLongEnvVariable("HARNESS_SEED", 1);
+        String[] crawlers = EnvReader.readEnvVariable("HARNESS_CRAWLERS", "appids,appinfo,similarapps,appbrain").split(",");
+        String resultFile = EnvReader.readEnvVariable("HARNESS_RESULT", "harness-result.json");
+
+        EmbeddedMongo mongo = EmbeddedMongo.start();
+        FixtureSite site = new FixtureSite(apps, clusters, latencyMillis, jitterMillis, failureRate, seed);
+        site.start();
+
+        configure("WEBDRIVER", "htmlunit");
+        configure("PLAY_STORE_ORIGIN", site.origin());
+        configure("APPBRAIN_ORIGIN", site.origin());
+        configure("MONGO_APP_DATA_HOST", mongo.host());
+        configure("MONGO_APP_DATA_PORT", String.valueOf(mongo.port()));
+        configure("CRAWL_WORKERS", "4");
+
+        List<RunResult> results = new ArrayList<RunResult>();
+        try {
+            for (String crawler : crawlers) {
+                results.add(run(crawler.trim(), site));
+            }
+        } finally {
+            site.stop();
+            mongo.stop();
+        }
+
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(resultFile), StandardCharsets.UTF_8)) {
+            new GsonBuilder().setPrettyPrinting().create().toJson(results, out);
+        }
+        log.info("Wrote results to " + resultFile);
+        // the mongo driver and HtmlUnit leave non-daemon threads behind
+        System.exit(0);
+    }
+
+    private static RunResult run(String crawler, FixtureSite site) {
+        Metrics.reset();
+        HostRateLimiter.reset();
+        long requestsBefore = site.requests();
+        long failuresBefore = site.failures();
+        long start = System.currentTimeMillis();
+
+        if ("appids".equals(crawler)) {
+            AppIdsCrawler.main(new String[0]);
+        } else if ("appinfo".equals(crawler)) {
+            AppsInfosCrawler.main(new String[0]);
+        } else if ("similarapps".equals(crawler)) {
+            SimilarAppsCrawler.main(new String[0]);
+        } else if ("appbrain".equals(crawler)) {
+            AppBrainCrawler.main(new String[0]);
+        } else {
+            throw new IllegalArgumentException("Unknown crawler " + crawler);
+        }
+
+        RunResult result = new RunResult();
+        result.crawler = crawler;
+        result.wallMillis = System.currentTimeMillis() - start;
+        Histogram tasks = Metrics.stage("task." + crawler);
+        result.tasks = tasks.count();
+        result.failedTasks = Metrics.counter("task." + crawler + ".failed").get();
+        result.tasksPerSecond = result.wallMillis == 0 ? 0 : result.tasks * 1000.0 / result.wallMillis;
+        result.meanMillis = result.tasks == 0 ? 0 : tasks.sumMillis() / result.tasks;
+        result.p50Millis = tasks.quantileUpperBoundMillis(0.5);
+        result.p99Millis = tasks.quantileUpperBoundMillis(0.99);
+        result.siteRequests = site.requests() - requestsBefore;
+        result.siteFailures = site.failures() - failuresBefore;
+
+        log.info("Harness " + crawler + ": " + result.tasks + " tasks in " + result.wallMillis + " ms, "
+                + String.format("%.1f", result.tasksPerSecond) + " tasks/s, p50 <= " + result.p50Millis + " ms, p99 <= "
+                + result.p99Millis + " ms, " + result.failedTasks + " failed tasks, " + result.siteFailures + " of "
+                + result.siteRequests + " requests failed by injection");
+        return result;
+    }
+
+    /**
+     * Sets a crawler setting unless the environment or the command line already has it.
+     */
+    private static void configure(String name, String value) {
+        if (EnvReader.readEnvVariable(name) == null) {
+            System.setProperty(name, value);
+        }
+    }
+
+    private static class RunResult {
+        String crawler;
+        long wallMillis;
+        long tasks;
+        long failedTasks;
+        double tasksPerSecond;
+        long meanMillis;
+        // upper bounds of the histogram buckets the quantiles fall into
+        long p50Millis;
+        long p99Millis;
+        long siteRequests;
+        long siteFailures;
+    }
+}
@@ -0,0 +1,267 @@
+package benchmarks.harness;
+
+import benchmarks.Resources;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Local stand-in for the Play Store and AppBrain that serves synthetic pages for a catalogue of app ids app.0 to
+ * app.(apps - 1): category and similar apps card lists, detail pages and AppBrain pages, all with the markup the
+ * crawlers look for.
+ *
+ * Every response is delayed by a base latency plus an exponentially distributed jitter, and a share of them fails
+ * with a 503. Both are drawn from the seed, the url and how often the url was requested before, so a run with the
+ * same seed sees the same delays and failures regardless of how the workers interleave.
+ */
+public class FixtureSite {
+    private static final Logger log = Logger.getLogger(FixtureSite.class.getName());
+
+    private static final String[] CATEGORIES = {"PRODUCTIVITY", "TOOLS", "GAME_PUZZLE", "EDUCATION", "FINANCE", "WEATHER"};
+    private static final int CARDS_PER_PAGE = 60;
+    private static final int REVIEWS_PER_PAGE = 40;
+
+    private final int apps;
+    private final int clusters;
+    private final long latencyMillis;
+    private final long jitterMillis;
+    private final double failureRate;
+    private final long seed;
+
+    private final String detailsTemplate = template("details.html");
+    private final String cardsTemplate = template("cards.html");
+    private final String appBrainTemplate = template("appbrain.html");
+
+    private final ConcurrentMap<String, AtomicInteger> attempts = new ConcurrentHashMap<String, AtomicInteger>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * @param apps          size of the catalogue
+     * @param clusters      number of similar apps clusters the apps are spread over
+     * @param latencyMillis delay of every response
+     * @param jitterMillis  mean of the exponential delay added on top
+     * @param failureRate   share of requests answered with a 503
+     */
+    public FixtureSite(int apps, int clusters, long latencyMillis, long jitterMillis, double failureRate, long seed) {
+        this.apps = apps;
+        this.clusters = Math.max(1, clusters);
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        this.failureRate = failureRate;
+        this.seed = seed;
+    }
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        // delays are slept on the handler threads, keep enough of them for all workers
+        executor = Executors.newFixedThreadPool(64);
+        server.setExecutor(executor);
+        server.start();
+        log.info("Serving " + apps + " fixture apps at " + origin());
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return scheme, host and port to use as PLAY_STORE_ORIGIN and APPBRAIN_ORIGIN
+     */
+    public String origin() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public long requests() {
+        return requests.get();
+    }
+
+    public long failures() {
+        return failures.get();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        URI uri = exchange.getRequestURI();
+        String path = uri.getPath();
+        String key = uri.toString();
+        requests.incrementAndGet();
+
+        Random random = new Random(seed * 31 + key.hashCode() * 17L + attempt(key));
+        sleep(latencyMillis + (long) (-Math.log(1 - random.nextDouble()) * jitterMillis));
+        if (random.nextDouble() < failureRate) {
+            failures.incrementAndGet();
+            respond(exchange, 503, "<html><body><h1>Service Unavailable</h1></body></html>");
+            return;
+        }
+
+        String page = null;
+        if (path.startsWith("/store/apps/details")) {
+            int app = appIndex(queryParameter(uri.getQuery(), "id"));
+            page = app < 0 ? null : detailsPage(app);
+        } else if (path.startsWith("/store/apps/collection/similar_apps_")) {
+            page = cardsPage("Similar apps", parseIndex(path.substring(path.lastIndexOf('_') + 1)) * 7919L);
+        } else if (path.startsWith("/store/apps/category/") || path.startsWith("/store/apps/collection/")) {
+            page = cardsPage(path.substring(path.lastIndexOf('/') + 1), path.hashCode());
+        } else if (path.startsWith("/app/")) {
+            int app = appIndex(path.substring("/app/".length()));
+            page = app < 0 ? null : appBrainPage(app);
+        }
+
+        if (page == null) {
+            respond(exchange, 404, "<html><body><h1>Not Found</h1></body></html>");
+        } else {
+            respond(exchange, 200, page);
+        }
+    }
+
+    private String detailsPage(int app) {
+        StringBuilder reviews = new StringBuilder();
+        for (int i = 0; i < REVIEWS_PER_PAGE; i++) {
+            reviews.append("        <div class=\"single-review\"><div class=\"review-body\"><div class=\"review-text\">Review ")
+                    .append(i).append(" of app ").append(app)
+                    .append(": works fine, the latest update fixed the sync issue but the widget still drains battery.</div></div></div>\n");
+        }
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            description.append("App ").append(app).append(" keeps track of every task, list and reminder across all your devices. ");
+        }
+
+        long ratings = 100 + (app * 7919L) % 100000;
+        return detailsTemplate
+                .replace("${title}", "Fixture App " + app)
+                .replace("${category}", CATEGORIES[app % CATEGORIES.length])
+                .replace("${price}", app % 3 == 0 ? "0" : "$" + (app % 10) + ".99")
+                .replace("${description}", description)
+                .replace("${version}", "1." + (app % 20) + "." + (app % 7))
+                .replace("${score}", String.valueOf(3 + (app % 20) / 10.0))
+                .replace("${ratingCount}", String.valueOf(ratings))
+                .replace("${five}", String.valueOf(ratings / 2))
+                .replace("${four}", String.valueOf(ratings / 4))
+                .replace("${three}", String.valueOf(ratings / 8))
+                .replace("${two}", String.valueOf(ratings / 16))
+                .replace("${one}", String.valueOf(ratings - ratings / 2 - ratings / 4 - ratings / 8 - ratings / 16))
+                .replace("${reviews}", reviews)
+                .replace("${size}", (1 + app % 90) + "M")
+                .replace("${installs}", app % 2 == 0 ? "10,000 - 50,000" : "1,000,000 - 5,000,000")
+                .replace("${cluster}", String.valueOf(app % clusters));
+    }
+
+    /**
+     * A card list whose second half is only shown after a click on show more, like the real lists.
+     */
+    private String cardsPage(String title, long listSeed) {
+        StringBuilder cards = new StringBuilder();
+        StringBuilder moreCards = new StringBuilder();
+        int first = (int) (Math.abs(listSeed) % apps);
+        for (int i = 0; i < Math.min(CARDS_PER_PAGE, apps); i++) {
+            int app = (first + i * 37) % apps;
+            StringBuilder target = i < CARDS_PER_PAGE / 2 ? cards : moreCards;
+            target.append("    <div class=\"card\" data-docid=\"app.").append(app).append("\"><div class=\"reason-set\">")
+                    .append("<span class=\"display-price\">").append(app % 3 == 0 ? "FREE" : "$" + (app % 10) + ".99")
+                    .append("</span></div></div>\n");
+        }
+        return cardsTemplate
+                .replace("${title}", title)
+                .replace("${cards}", cards)
+                .replace("${moreCards}", moreCards);
+    }
+
+    private String appBrainPage(int app) {
+        return appBrainTemplate
+                .replace("${title}", "Fixture App " + app)
+                .replace("${rank}", String.valueOf(1 + app % 500))
+                .replace("${category}", CATEGORIES[app % CATEGORIES.length])
+                .replace("${libraries}", String.valueOf(app % 30))
+                .replace("${size}", (1 + app % 90) + ".4MB")
+                .replace("${age}", (1 + app % 5) + " years");
+    }
+
+    private int attempt(String key) {
+        AtomicInteger attempt = attempts.get(key);
+        if (attempt == null) {
+            attempt = new AtomicInteger();
+            AtomicInteger existing = attempts.putIfAbsent(key, attempt);
+            if (existing != null) {
+                attempt = existing;
+            }
+        }
+        return attempt.getAndIncrement();
+    }
+
+    /**
+     * @return index of an id of the form app.N in the catalogue, -1 for unknown ids
+     */
+    private int appIndex(String appId) {
+        if (appId == null || !appId.startsWith("app.")) {
+            return -1;
+        }
+        int index = parseIndex(appId.substring("app.".length()));
+        return index < apps ? index : -1;
+    }
+
+    private static int parseIndex(String text) {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String queryParameter(String query, String name) {
+        if (query == null) {
+            return null;
+        }
+        for (String parameter : query.split("&")) {
+            if (parameter.startsWith(name + "=")) {
+                return parameter.substring(name.length() + 1);
+            }
+        }
+        return null;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String template(String name) {
+        return Resources.text("/site/" + name);
+    }
+}
@@ -0,0 +1,77 @@
+package archive;
+
+/**
+ * Open addressing map from the 64 bit prefix of a content hash to the packed location of the body, two longs per
+ * entry and no boxing, so the index of hundreds of millions of pages still fits in memory.
+ */
+final class OffsetIndex {
+    static final long ABSENT = -1;
+
+    private static final int INITIAL_CAPACITY = 1 << 16;
+    private static final double MAX_LOAD = 0.6;
+
+    // 0 marks a free slot
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private long[] values = new long[INITIAL_CAPACITY];
+    private int size;
+
+    long get(long key) {
+        key = nonZero(key);
+        int mask = keys.length - 1;
+        for (int slot = slot(key, mask); keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+        }
+        return ABSENT;
+    }
+
+    void put(long key, long value) {
+        if (size + 1 > keys.length * MAX_LOAD) {
+            grow();
+        }
+        if (insert(keys, values, nonZero(key), value)) {
+            size++;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void grow() {
+        long[] newKeys = new long[keys.length * 2];
+        long[] newValues = new long[values.length * 2];
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                insert(newKeys, newValues, keys[i], values[i]);
+            }
+        }
+        keys = newKeys;
+        values = newValues;
+    }
+
+    /**
+     * @return true if the key was not present before
+     */
+    private static boolean insert(long[] keys, long[] values, long key, long value) {
+        int mask = keys.length - 1;
+        int slot = slot(key, mask);
+        while (keys[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        boolean added = keys[slot] == 0;
+        keys[slot] = key;
+        values[slot] = value;
+        return added;
+    }
+
+    private static int slot(long key, int mask) {
+        // the key is already a cryptographic hash, folding it is enough
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+
+    private static long nonZero(long key) {
+        return key == 0 ? 1 : key;
+    }
+}
@@ -0,0 +1,497 @@
+package archive;
+
+import snapshot.PageSnapshot;
+import snapshot.SnapshotStore;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Archive of the raw html of every visited page on cheap disk.
+ *
+ * Bodies are addressed by their SHA-256, so a page that did not change since the last visit costs one visit record
+ * and no body. New bodies are deflated and appended to large segment files; a fixed width index file maps hashes
+ * to segment offsets, and reads memory-map the segments. The visits log keeps which key and url was seen with
+ * which body when, the latest visit per key is what load returns.
+ *
+ * On-disk layout:
+ * segment-NNNNNN.dat  records of [int compressed length][int raw length][32 byte hash][deflated body]
+ * index.dat           entries of [32 byte hash][int segment][long offset][int record length]
+ * visits.log          entries of [utf key][utf url][long captured at][32 byte hash]
+ *
+ * Segments are written before the index and the index before the visit, so after a crash every indexed body is
+ * complete; bytes past the last indexed record and torn tails are cut off on open. openReadOnly neither cuts nor
+ * creates anything, so it can read an archive a crawler is writing to.
+ */
+public class PageArchive implements SnapshotStore {
+    private static final Logger log = Logger.getLogger(PageArchive.class.getName());
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final String INDEX_FILE = "index.dat";
+    private static final String VISITS_FILE = "visits.log";
+
+    private static final int HASH_BYTES = 32;
+    private static final int RECORD_HEADER_BYTES = 4 + 4 + HASH_BYTES;
+    private static final int INDEX_ENTRY_BYTES = HASH_BYTES + 4 + 8 + 4;
+    // a location packs the segment number above a 40 bit offset
+    private static final int OFFSET_BITS = 40;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+    // a single mapping can not exceed 2 GB
+    private static final long MAX_SEGMENT_BYTES = Integer.MAX_VALUE;
+
+    private final File directory;
+    private final long segmentBytes;
+    private final int compressionLevel;
+
+    private final OffsetIndex index = new OffsetIndex();
+    private final Map<String, Visit> latestVisits = new HashMap<String, Visit>();
+    private final Map<Integer, MappedByteBuffer> mappedSegments = new HashMap<Integer, MappedByteBuffer>();
+
+    private final boolean readOnly;
+    private final FileChannel indexChannel;
+    // null when read-only
+    private final FileChannel visitsChannel;
+    private FileChannel activeSegment;
+    private int activeSegmentNumber;
+    private long activeSegmentEnd;
+
+    private long visits;
+    private long storedBodies;
+    private long storedRawBytes;
+    private long storedCompressedBytes;
+
+    public PageArchive(File directory, long segmentBytes, int compressionLevel) throws IOException {
+        this(directory, segmentBytes, compressionLevel, false);
+    }
+
+    /**
+     * Opens an existing archive for load and keys only, e.g. next to a crawler that keeps writing to it.
+     */
+    public static PageArchive openReadOnly(File directory) throws IOException {
+        if (!directory.isDirectory()) {
+            throw new FileNotFoundException("No page archive at " + directory);
+        }
+        return new PageArchive(directory, MAX_SEGMENT_BYTES, Deflater.DEFAULT_COMPRESSION, true);
+    }
+
+    private PageArchive(File directory, long segmentBytes, int compressionLevel, boolean readOnly) throws IOException {
+        if (!readOnly && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create archive directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentBytes = Math.min(segmentBytes, MAX_SEGMENT_BYTES);
+        this.compressionLevel = compressionLevel;
+        this.readOnly = readOnly;
+
+        File indexFile = new File(directory, INDEX_FILE);
+        if (readOnly) {
+            if (!indexFile.isFile()) {
+                throw new FileNotFoundException("No page archive index at " + indexFile);
+            }
+            indexChannel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ);
+        } else {
+            indexChannel = FileChannel.open(indexFile.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        loadIndex();
+
+        File visitsFile = new File(directory, VISITS_FILE);
+        long visitsEnd = loadVisits(visitsFile);
+        if (readOnly) {
+            visitsChannel = null;
+            log.info("Opened page archive " + directory + " read-only with " + index.size() + " bodies and " + latestVisits.size() + " keys");
+            return;
+        }
+
+        activeSegment = FileChannel.open(segmentFile(activeSegmentNumber).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        // a body written without its index entry is unreachable, drop it
+        activeSegment.truncate(activeSegmentEnd);
+        activeSegment.position(activeSegmentEnd);
+
+        visitsChannel = FileChannel.open(visitsFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        visitsChannel.truncate(visitsEnd);
+        visitsChannel.position(visitsEnd);
+
+        log.info("Opened page archive " + directory + " with " + index.size() + " bodies and " + latestVisits.size() + " keys");
+    }
+
+    /**
+     * Records a visit and stores the body unless an identical one is archived already.
+     */
+    @Override
+    public synchronized void save(String key, PageSnapshot snapshot) throws IOException {
+        if (readOnly) {
+            throw new IOException("Page archive " + directory + " is open read-only");
+        }
+        byte[] raw = snapshot.getHtml().getBytes(StandardCharsets.UTF_8);
+        byte[] hash = sha256(raw);
+
+        if (locate(hash) == OffsetIndex.ABSENT) {
+            appendBody(hash, raw);
+        }
+        appendVisit(key, snapshot.getUrl(), snapshot.getCapturedAtMillis(), hash);
+    }
+
+    @Override
+    public PageSnapshot load(String key) throws IOException {
+        Visit visit;
+        long location;
+        synchronized (this) {
+            visit = latestVisits.get(key);
+            if (visit == null) {
+                return null;
+            }
+            location = locate(visit.hash);
+        }
+        if (location == OffsetIndex.ABSENT) {
+            throw new IOException("Archive has no body for " + key);
+        }
+        return new PageSnapshot(visit.url, visit.capturedAtMillis, readBody(location, visit.hash));
+    }
+
+    /**
+     * @return the keys in the order of their bodies in the segments, so loading them one by one reads front to back
+     */
+    @Override
+    public synchronized List<String> keys() {
+        List<KeyLocation> located = new ArrayList<KeyLocation>(latestVisits.size());
+        for (Map.Entry<String, Visit> visit : latestVisits.entrySet()) {
+            located.add(new KeyLocation(visit.getKey(), index.get(prefix(visit.getValue().hash))));
+        }
+        Collections.sort(located, new Comparator<KeyLocation>() {
+            @Override
+            public int compare(KeyLocation a, KeyLocation b) {
+                return Long.compare(a.location, b.location);
+            }
+        });
+
+        List<String> keys = new ArrayList<String>(located.size());
+        for (KeyLocation keyLocation : located) {
+            keys.add(keyLocation.key);
+        }
+        return keys;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (readOnly) {
+            indexChannel.close();
+            mappedSegments.clear();
+            return;
+        }
+        activeSegment.force(false);
+        indexChannel.force(false);
+        visitsChannel.force(false);
+        activeSegment.close();
+        indexChannel.close();
+        visitsChannel.close();
+        mappedSegments.clear();
+
+        if (visits > 0) {
+            log.info("Archived " + visits + " visits, " + storedBodies + " new bodies, "
+                    + storedRawBytes + " bytes compressed to " + storedCompressedBytes);
+        }
+    }
+
+    private void appendBody(byte[] hash, byte[] raw) throws IOException {
+        byte[] compressed = deflate(raw);
+        int recordBytes = RECORD_HEADER_BYTES + compressed.length;
+
+        if (activeSegmentEnd > 0 && activeSegmentEnd + recordBytes > segmentBytes) {
+            rollSegment();
+        }
+
+        ByteBuffer record = ByteBuffer.allocate(recordBytes);
+        record.putInt(compressed.length).putInt(raw.length).put(hash).put(compressed).flip();
+        long offset = activeSegmentEnd;
+        writeFully(activeSegment, record);
+        activeSegmentEnd += recordBytes;
+
+        ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_BYTES);
+        entry.put(hash).putInt(activeSegmentNumber).putLong(offset).putInt(recordBytes).flip();
+        writeFully(indexChannel, entry);
+
+        index.put(prefix(hash), location(activeSegmentNumber, offset));
+        storedBodies++;
+        storedRawBytes += raw.length;
+        storedCompressedBytes += recordBytes;
+    }
+
+    private void appendVisit(String key, String url, long capturedAtMillis, byte[] hash) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + key.length() + url.length());
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(key);
+        out.writeUTF(url);
+        out.writeLong(capturedAtMillis);
+        out.write(hash);
+        writeFully(visitsChannel, ByteBuffer.wrap(bytes.toByteArray()));
+
+        remember(key, new Visit(url, capturedAtMillis, hash));
+        visits++;
+    }
+
+    private void rollSegment() throws IOException {
+        activeSegment.force(false);
+        activeSegment.close();
+        activeSegmentNumber++;
+        activeSegmentEnd = 0;
+        activeSegment = FileChannel.open(segmentFile(activeSegmentNumber).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        log.info("Rolled page archive to segment " + activeSegmentNumber);
+    }
+
+    private String readBody(long location, byte[] hash) throws IOException {
+        int segment = (int) (location >>> OFFSET_BITS);
+        int offset = (int) (location & OFFSET_MASK);
+
+        ByteBuffer buffer = mappedSegment(segment, offset + RECORD_HEADER_BYTES).duplicate();
+        buffer.position(offset);
+        int compressedLength = buffer.getInt();
+        int rawLength = buffer.getInt();
+        byte[] storedHash = new byte[HASH_BYTES];
+        buffer.get(storedHash);
+        if (!Arrays.equals(hash, storedHash)) {
+            throw new IOException("Hash mismatch in segment " + segment + " at " + offset);
+        }
+
+        if (buffer.remaining() < compressedLength) {
+            buffer = mappedSegment(segment, offset + RECORD_HEADER_BYTES + compressedLength).duplicate();
+            buffer.position(offset + RECORD_HEADER_BYTES);
+        }
+        byte[] compressed = new byte[compressedLength];
+        buffer.get(compressed);
+        return new String(inflate(compressed, rawLength), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Maps the segment read-only, again if it has grown past the required end since it was last mapped.
+     */
+    private synchronized MappedByteBuffer mappedSegment(int segment, long requiredEnd) throws IOException {
+        MappedByteBuffer mapped = mappedSegments.get(segment);
+        if (mapped == null || mapped.capacity() < requiredEnd) {
+            try (FileChannel channel = FileChannel.open(segmentFile(segment).toPath(), StandardOpenOption.READ)) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            if (mapped.capacity() < requiredEnd) {
+                throw new IOException("Segment " + segment + " ends before " + requiredEnd);
+            }
+            mappedSegments.put(segment, mapped);
+        }
+        return mapped;
+    }
+
+    private void loadIndex() throws IOException {
+        // drop a torn entry at the end, read-only it is just not read
+        long end = indexChannel.size() / INDEX_ENTRY_BYTES * INDEX_ENTRY_BYTES;
+        if (!readOnly) {
+            indexChannel.truncate(end);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(INDEX_ENTRY_BYTES * 4096);
+        byte[] hash = new byte[HASH_BYTES];
+        long position = 0;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            while (buffer.hasRemaining()) {
+                if (indexChannel.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException("Index ends before " + end);
+                }
+            }
+            buffer.flip();
+            position += buffer.limit();
+
+            while (buffer.hasRemaining()) {
+                buffer.get(hash);
+                int segment = buffer.getInt();
+                long offset = buffer.getLong();
+                int recordBytes = buffer.getInt();
+                index.put(prefix(hash), location(segment, offset));
+
+                if (segment > activeSegmentNumber) {
+                    activeSegmentNumber = segment;
+                    activeSegmentEnd = 0;
+                }
+                if (segment == activeSegmentNumber) {
+                    activeSegmentEnd = Math.max(activeSegmentEnd, offset + recordBytes);
+                }
+            }
+        }
+        indexChannel.position(end);
+    }
+
+    /**
+     * @return the length of the intact part of the visits log
+     */
+    private long loadVisits(File visitsFile) throws IOException {
+        if (!visitsFile.isFile()) {
+            return 0;
+        }
+
+        long intact = 0;
+        try (CountingInputStream counting = new CountingInputStream(new BufferedInputStream(new FileInputStream(visitsFile)));
+             DataInputStream in = new DataInputStream(counting)) {
+            while (true) {
+                String key = in.readUTF();
+                String url = in.readUTF();
+                long capturedAtMillis = in.readLong();
+                byte[] hash = new byte[HASH_BYTES];
+                in.readFully(hash);
+                remember(key, new Visit(url, capturedAtMillis, hash));
+                intact = counting.count;
+            }
+        } catch (EOFException | UTFDataFormatException e) {
+            // end of the log, possibly a torn visit
+        }
+        return intact;
+    }
+
+    private void remember(String key, Visit visit) {
+        Visit latest = latestVisits.get(key);
+        if (latest == null || latest.capturedAtMillis <= visit.capturedAtMillis) {
+            latestVisits.put(key, visit);
+        }
+    }
+
+    /**
+     * @return the location of the body, or ABSENT if no body with this hash is archived
+     */
+    private long locate(byte[] hash) throws IOException {
+        long location = index.get(prefix(hash));
+        if (location == OffsetIndex.ABSENT) {
+            return location;
+        }
+        // the index only keeps a 64 bit prefix, confirm the full hash against the record
+        int segment = (int) (location >>> OFFSET_BITS);
+        int offset = (int) (location & OFFSET_MASK);
+        ByteBuffer buffer = mappedSegment(segment, offset + RECORD_HEADER_BYTES).duplicate();
+        buffer.position(offset + 8);
+        byte[] storedHash = new byte[HASH_BYTES];
+        buffer.get(storedHash);
+        return Arrays.equals(hash, storedHash) ? location : OffsetIndex.ABSENT;
+    }
+
+    private byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater(compressionLevel);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 4 + 64);
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] compressed, int rawLength) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] raw = new byte[rawLength];
+            int inflated = 0;
+            while (inflated < rawLength) {
+                int length = inflater.inflate(raw, inflated, rawLength - inflated);
+                if (length == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated archive record, " + inflated + " of " + rawLength + " bytes");
+                }
+                inflated += length;
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt archive record", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] sha256(byte[] raw) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(raw);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long prefix(byte[] hash) {
+        return ByteBuffer.wrap(hash).getLong();
+    }
+
+    private static long location(int segment, long offset) {
+        return ((long) segment << OFFSET_BITS) | offset;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private File segmentFile(int segment) {
+        return new File(directory, SEGMENT_PREFIX + String.format("%06d", segment) + SEGMENT_SUFFIX);
+    }
+
+    private static class KeyLocation {
+        private final String key;
+        private final long location;
+
+        private KeyLocation(String key, long location) {
+            this.key = key;
+            this.location = location;
+        }
+    }
+
+    private static class Visit {
+        private final String url;
+        private final long capturedAtMillis;
+        private final byte[] hash;
+
+        private Visit(String url, long capturedAtMillis, byte[] hash) {
+            this.url = url;
+            this.capturedAtMillis = capturedAtMillis;
+            this.hash = hash;
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+}
@@ -1,20 +1,36 @@
 package crawler;
 
-import com.mongodb.client.FindIterable;
+import archive.PageArchive;
+import crawler.appbrain.AppBrainInfo;
+import crawler.appinfo.AppInfo;
 import db.DBWriter;
+import db.WorkLease;
+import journal.Journal;
+import journal.JournalShipper;
+import metrics.Metrics;
 import org.bson.Document;
+import snapshot.DirectorySnapshotStore;
+import snapshot.PageSnapshot;
+import snapshot.SnapshotStore;
+import utils.BrowserProfile;
 import utils.EnvReader;
+import utils.NamedThreadFactory;
 import utils.WebDriverUtils;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
 import java.net.MalformedURLException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.logging.Logger;
 
-import static crawler.appinfo.AppInfo.APP_ID;
-
 /**
  * Abstract Crawler for all Crawlers
  */
@@ -22,10 +38,10 @@ public abstract class AbstractCrawler {
 
     private static final String DB_NAME = "apps";
     private static final String DATA_COLLECTION = "data";
-    // 604800000 - one week
-    private static final long THRESHOLD = new Long("2419200000"); // one month
 
     protected static final String PLAY_STORE_ATTR = "gl=us&hl=en";
+    // overridable to point the crawlers at a fixture site
+    public static final String PLAY_STORE_ORIGIN = EnvReader.readEnvVariable("PLAY_STORE_ORIGIN", "https://play.google.com");
     protected static final String COMMA = ",";
     protected static final String EMPTY = "";
     protected static final String SPACE = " ";
@@ -35,24 +51,170 @@ public abstract class AbstractCrawler {
     private static final Logger log = Logger.getLogger(AbstractCrawler.class.getName());
 
     protected DBWriter dbWriter;
+    private Journal journal;
+    private JournalShipper journalShipper;
+    private RecrawlScheduler recrawlScheduler;
+    private SnapshotStore snapshotStore;
+    private WorkLease workLease;
+    private long retryAfterMillis;
+
+    // one grid session per worker
+    private final int workers;
+    private final ExecutorService workerExecutor;
+
+    /**
+     * A crawl step for a single app id or url, runs on a worker thread that holds its own WebDriver session.
+     */
+    protected interface CrawlTask {
+        void crawl(String item);
+    }
+
+    /**
+     * A crawl step split into stages that run at the same time on their own workers, see crawlStaged.
+     *
+     * @param <P> what fetch hands to extract, e.g. the html of a page
+     * @param <R> the record extract builds
+     */
+    protected abstract class StagedCrawlTask<P, R> {
+        /**
+         * Loads what extraction needs, on a fetch worker that holds a WebDriver session.
+         *
+         * @return null if the item failed
+         */
+        protected abstract P fetch(String item) throws Exception;
+
+        /**
+         * Builds the record from the fetched page, on an extract worker without a session.
+         *
+         * @return null if the item failed
+         */
+        protected abstract R extract(String item, P page) throws Exception;
+
+        /**
+         * Writes the record, on a persist worker.
+         */
+        protected abstract void persist(String item, R record);
+
+        /**
+         * Called instead of persist if a stage returned null or threw.
+         */
+        protected void failed(String item) {
+        }
+    }
+
+    /**
+     * An item on its way through the stages of crawlStaged.
+     */
+    private static class Job<P, R> {
+        final String item;
+        long start = System.nanoTime();
+        P page;
+        R record;
+
+        Job(String item) {
+            this.item = item;
+        }
+    }
 
     public AbstractCrawler() {
+        // 0 keeps the metrics to JMX and the final log summary, the endpoint only listens on loopback by default
+        Metrics.start(EnvReader.readEnvVariable("METRICS_BIND", null), EnvReader.readIntEnvVariable("METRICS_PORT", 0));
+        workers = Math.max(1, EnvReader.readIntEnvVariable("CRAWL_WORKERS", 1));
+        workerExecutor = Executors.newFixedThreadPool(workers, new NamedThreadFactory("crawl-worker"));
         connectDriver();
         connectDB();
+        openJournal();
+        openSnapshotStore();
     }
 
     private void connectDB() {
         String mongoAppDataHost = EnvReader.readEnvVariable("MONGO_APP_DATA_HOST", "localhost");
-        int mongoAppDataPort = Integer.getInteger(EnvReader.readEnvVariable("MONGO_APP_DATA_PORT"), 27017);
+        int mongoAppDataPort = EnvReader.readIntEnvVariable("MONGO_APP_DATA_PORT", 27017);
+
+        // 1 keeps the old write-through behaviour, larger values group upserts into unordered bulk writes
+        int bulkSize = EnvReader.readIntEnvVariable("MONGO_BULK_SIZE", 1);
+        long bulkMaxAgeMillis = EnvReader.readLongEnvVariable("MONGO_BULK_MAX_AGE_MILLIS", 10000);
 
-        log.info("Connecting to MongoDB at " + mongoAppDataHost + ":" + mongoAppDataPort);
+        log.info("Connecting to MongoDB at " + mongoAppDataHost + ":" + mongoAppDataPort + " with bulk size " + bulkSize);
 
-        dbWriter = new DBWriter(mongoAppDataHost, mongoAppDataPort, DB_NAME, DATA_COLLECTION);
+        dbWriter = new DBWriter(mongoAppDataHost, mongoAppDataPort, DB_NAME, DATA_COLLECTION, bulkSize, bulkMaxAgeMillis);
+        // only write the fields that changed since the last crawl
+        if (EnvReader.readBooleanEnvVariable("CHANGE_DETECTION", true)) {
+            dbWriter.enableChangeDetection();
+        }
+        // store low-cardinality text fields as codes of the dictionary collection
+        if (EnvReader.readBooleanEnvVariable("DICTIONARY_ENCODING", false)) {
+            dbWriter.enableDictionaryEncoding();
+        }
+        // known app ids are filtered in-process before they are written
+        String seenSetFile = EnvReader.readEnvVariable("SEEN_SET_FILE");
+        if (seenSetFile != null && !seenSetFile.isEmpty()) {
+            dbWriter.enableSeenSet(new File(seenSetFile));
+        }
+    }
+
+    /**
+     * With JOURNAL_DIR set, crawled records are appended to a local write-ahead journal and shipped to the
+     * database in the background. Segments left behind by a crash are replayed first.
+     */
+    private void openJournal() {
+        String journalDir = EnvReader.readEnvVariable("JOURNAL_DIR");
+        if (journalDir == null || journalDir.isEmpty()) {
+            return;
+        }
+
+        int segmentBytes = EnvReader.readIntEnvVariable("JOURNAL_SEGMENT_MB", 64) * 1024 * 1024;
+        boolean forceOnAppend = EnvReader.readBooleanEnvVariable("JOURNAL_FORCE_ON_APPEND", false);
+        int shipBatchSize = EnvReader.readIntEnvVariable("JOURNAL_SHIP_BATCH_SIZE", 500);
+        long shipPauseMillis = EnvReader.readLongEnvVariable("JOURNAL_SHIP_PAUSE_MILLIS", 1000);
+
+        try {
+            journal = new Journal(new File(journalDir), segmentBytes, forceOnAppend);
+            journalShipper = new JournalShipper(journal, dbWriter, shipBatchSize, shipPauseMillis);
+            journalShipper.start();
+            log.info("Writing crawled records ahead to journal " + journalDir);
+        } catch (IOException e) {
+            logException(e, "Cannot open journal " + journalDir + ", writing directly to the db");
+            journal = null;
+        }
+    }
+
+    /**
+     * With ARCHIVE_DIR set, the html of every crawled page goes to the compressed page archive, which keeps the
+     * full history. With only SNAPSHOT_DIR set, the latest html per app is kept as a plain file. Either way fields
+     * can be re-extracted offline later.
+     */
+    private void openSnapshotStore() {
+        String archiveDir = readSetting("ARCHIVE_DIR", null);
+        String snapshotDir = readSetting("SNAPSHOT_DIR", null);
+
+        File directory = null;
+        try {
+            if (archiveDir != null && !archiveDir.isEmpty()) {
+                directory = new File(archiveDir, settingsPrefix().toLowerCase());
+                long segmentBytes = EnvReader.readLongEnvVariable("ARCHIVE_SEGMENT_MB", 1024) * 1024 * 1024;
+                int compressionLevel = EnvReader.readIntEnvVariable("ARCHIVE_COMPRESSION_LEVEL", 6);
+                snapshotStore = new PageArchive(directory, segmentBytes, compressionLevel);
+                log.info("Archiving pages in " + directory);
+            } else if (snapshotDir != null && !snapshotDir.isEmpty()) {
+                directory = new File(snapshotDir, settingsPrefix().toLowerCase());
+                snapshotStore = new DirectorySnapshotStore(directory);
+                log.info("Keeping page snapshots in " + directory);
+            }
+        } catch (IOException e) {
+            logException(e, "Cannot open snapshot store " + directory + ", not keeping snapshots");
+        }
     }
 
+    /**
+     * BROWSER_PROFILE=lean keeps the grid browsers from loading images, video, web fonts and analytics, see
+     * BrowserProfile. The lean profile stops waiting for subresources once the dom is ready (eager), where the grid's
+     * chromedriver supports it, the full one waits for them (normal). PAGE_LOAD_STRATEGY overrides the profile.
+     */
     private void connectDriver() {
         try {
-            WebDriverUtils.createDriver();
+            WebDriverUtils.createPool(workers, BrowserProfile.fromSetting(readSetting("BROWSER_PROFILE", BrowserProfile.FULL.name())),
+                    readSetting("PAGE_LOAD_STRATEGY", null));
         } catch (MalformedURLException e) {
             logException(e, "Check env variables");
         }
@@ -65,31 +227,389 @@ public abstract class AbstractCrawler {
 
     public abstract void crawl();
 
+    /**
+     * Runs the task for every item on the worker executor and returns once all of them are done. At most two
+     * items per worker are queued at a time.
+     */
+    protected void crawlConcurrently(Iterable<String> items, CrawlTask task) {
+        crawlConcurrently(items.iterator(), task);
+    }
+
+    /**
+     * Same as above for a stream of items, which is consumed only as fast as the workers keep up.
+     */
+    protected void crawlConcurrently(Iterator<String> items, final CrawlTask task) {
+        final String taskStage = taskStage();
+        final int maxQueued = workers * 2;
+        final Semaphore slots = new Semaphore(maxQueued);
+
+        while (items.hasNext()) {
+            final String item = items.next();
+            slots.acquireUninterruptibly();
+            workerExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long start = System.nanoTime();
+                    try {
+                        WebDriverUtils.acquireDriver();
+                        task.crawl(item);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (Exception e) {
+                        Metrics.counter(taskStage + ".failed").incrementAndGet();
+                        logException(e, item);
+                        retryLater(item);
+                    } finally {
+                        finished(item);
+                        Metrics.stage(taskStage).recordSince(start);
+                        WebDriverUtils.releaseDriver();
+                        slots.release();
+                    }
+                }
+            });
+        }
+
+        // all permits back means all tasks have finished
+        slots.acquireUninterruptibly(maxQueued);
+        slots.release(maxQueued);
+    }
+
+    /**
+     * Runs the item through three stages, fetch, extract and persist, joined by bounded queues. Page loads, parsing
+     * and database writes of different items overlap, so a slow write no longer holds a browser and a slow page no
+     * longer holds the writer. Fetch gets one worker per session, extract and persist are sized with the
+     * EXTRACT_WORKERS and PERSIST_WORKERS settings.
+     */
+    protected <P, R> void crawlStaged(final Iterator<String> items, final StagedCrawlTask<P, R> task) {
+        newPipeline()
+                .stage(new BrowserStage<Job<P, R>, Job<P, R>>("fetch") {
+                    @Override
+                    protected void render(Job<P, R> job, CrawlPipeline.Emitter<Job<P, R>> out) throws Exception {
+                        job.start = System.nanoTime();
+                        job.page = task.fetch(job.item);
+                        if (job.page == null) {
+                            abandon(task, job);
+                            return;
+                        }
+                        out.emit(job);
+                    }
+
+                    @Override
+                    protected void failed(Job<P, R> job, Exception e) {
+                        fail(task, job, e);
+                    }
+                })
+                .stage(new CrawlPipeline.Stage<Job<P, R>, Job<P, R>>("extract", stageWorkers("EXTRACT", Runtime.getRuntime().availableProcessors())) {
+                    @Override
+                    protected void process(Job<P, R> job, CrawlPipeline.Emitter<Job<P, R>> out) throws Exception {
+                        job.record = task.extract(job.item, job.page);
+                        // the page is not needed any more, let it go while the job waits for the writer
+                        job.page = null;
+                        if (job.record == null) {
+                            abandon(task, job);
+                            return;
+                        }
+                        out.emit(job);
+                    }
+
+                    @Override
+                    protected void failed(Job<P, R> job, Exception e) {
+                        fail(task, job, e);
+                    }
+                })
+                .stage(new CrawlPipeline.Stage<Job<P, R>, Void>("persist", stageWorkers("PERSIST", 1)) {
+                    @Override
+                    protected void process(Job<P, R> job, CrawlPipeline.Emitter<Void> out) {
+                        try {
+                            task.persist(job.item, job.record);
+                        } finally {
+                            Metrics.stage(taskStage()).recordSince(job.start);
+                            finished(job.item);
+                        }
+                    }
+
+                    @Override
+                    protected void failed(Job<P, R> job, Exception e) {
+                        Metrics.counter(taskStage() + ".failed").incrementAndGet();
+                        logException(e, job.item);
+                        retryLater(job.item);
+                    }
+                })
+                .run(new Iterator<Job<P, R>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return items.hasNext();
+                    }
+
+                    @Override
+                    public Job<P, R> next() {
+                        return new Job<P, R>(items.next());
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException("remove");
+                    }
+                });
+    }
+
+    private <P, R> void fail(StagedCrawlTask<P, R> task, Job<P, R> job, Exception e) {
+        Metrics.counter(taskStage() + ".failed").incrementAndGet();
+        logException(e, job.item);
+        abandon(task, job);
+    }
+
+    private <P, R> void abandon(StagedCrawlTask<P, R> task, Job<P, R> job) {
+        try {
+            task.failed(job.item);
+        } finally {
+            Metrics.stage(taskStage()).recordSince(job.start);
+            finished(job.item);
+        }
+    }
+
+    /**
+     * Name of the metric that records the time of a whole crawl task of this crawler.
+     */
+    protected String taskStage() {
+        return "task." + settingsPrefix().toLowerCase();
+    }
+
+    /**
+     * A pipeline stage that needs the browser, every worker checks out a WebDriver session per item. There are as
+     * many workers as sessions.
+     */
+    protected abstract class BrowserStage<I, O> extends CrawlPipeline.Stage<I, O> {
+        protected BrowserStage(String name) {
+            super(name, workers);
+        }
+
+        /**
+         * Processes the item with the session of the calling thread, see WebDriverUtils.driver().
+         */
+        protected abstract void render(I item, CrawlPipeline.Emitter<O> out) throws Exception;
+
+        @Override
+        protected final void process(I item, CrawlPipeline.Emitter<O> out) throws Exception {
+            WebDriverUtils.acquireDriver();
+            try {
+                render(item, out);
+            } finally {
+                WebDriverUtils.releaseDriver();
+            }
+        }
+    }
+
+    /**
+     * A pipeline named after this crawler, with PIPELINE_QUEUE_SIZE items waiting in front of every stage.
+     */
+    protected CrawlPipeline newPipeline() {
+        return new CrawlPipeline("pipeline." + settingsPrefix().toLowerCase(),
+                Math.max(1, readIntSetting("PIPELINE_QUEUE_SIZE", workers * 2)));
+    }
+
+    /**
+     * Number of workers of a pipeline stage, read from the [stage]_WORKERS setting.
+     */
+    protected int stageWorkers(String stage, int fallback) {
+        return Math.max(1, readIntSetting(stage + "_WORKERS", fallback));
+    }
+
+    /**
+     * Marks an item as done, its work lease is no longer renewed.
+     */
+    protected void finished(String item) {
+        if (workLease != null) {
+            workLease.done(item);
+        }
+    }
+
+    /**
+     * Marks an item as failed. With work leases it is held back for RETRY_AFTER_MILLIS before it can be claimed
+     * again, so a crawl does not keep re-claiming an item that fails every time.
+     */
+    protected void retryLater(String item) {
+        if (workLease != null) {
+            workLease.failed(item, retryAfterMillis);
+        }
+    }
+
     private void finish() {
-        log.info("Quitting the driver.");
-        WebDriverUtils.driver.quit();
+        workerExecutor.shutdown();
+        if (journalShipper != null) {
+            log.info("Shipping remaining journal records.");
+            journalShipper.close();
+        }
+        log.info("Flushing pending writes.");
+        dbWriter.close();
+        if (snapshotStore != null) {
+            try {
+                snapshotStore.close();
+            } catch (IOException e) {
+                logException(e, "Closing the snapshot store failed");
+            }
+        }
+        Metrics.logSummary();
+        log.info("Quitting the drivers.");
+        WebDriverUtils.quitDrivers();
+        Metrics.stop();
     }
 
     public abstract String timestampFieldName();
 
-    protected List<String> getAppIds() {
-        FindIterable<Document> docs = dbWriter.readAppIds(timestampFieldName());
-        List<String> ids = new ArrayList<String>();
+    /**
+     * Prefix of the environment variables that configure only this crawler, e.g. APPINFO for APPINFO_ENGINE.
+     */
+    protected abstract String settingsPrefix();
 
-        for (Document doc : docs) {
-            Long ts = doc.getLong(timestampFieldName());
-            //if (ts == null || isOutdated(ts)) {
-            if (ts == null) {
-                ids.add(doc.getString(APP_ID));
-            }
+    /**
+     * Reads a crawler specific setting, falling back to the setting shared by all crawlers.
+     */
+    protected String readSetting(String name, String fallback) {
+        return EnvReader.readEnvVariable(settingsPrefix() + "_" + name, EnvReader.readEnvVariable(name, fallback));
+    }
+
+    /**
+     * Same as readSetting, a value that is no number falls back like a missing one.
+     */
+    protected long readLongSetting(String name, long fallback) {
+        return EnvReader.readLongEnvVariable(settingsPrefix() + "_" + name, EnvReader.readLongEnvVariable(name, fallback));
+    }
+
+    protected int readIntSetting(String name, int fallback) {
+        return EnvReader.readIntEnvVariable(settingsPrefix() + "_" + name, EnvReader.readIntEnvVariable(name, fallback));
+    }
+
+    /**
+     * With WORK_LEASES set, several processes can run the same crawler on one database. Every process claims the
+     * items it crawls through expiring leases, see WorkLease, so no item is crawled twice and the items of a
+     * crashed process are taken over once their leases run out.
+     */
+    protected boolean usesWorkLeases() {
+        return Boolean.parseBoolean(readSetting("WORK_LEASES", "false"));
+    }
+
+    /**
+     * Opens a lease on the items of this crawler, items finished by crawlConcurrently are no longer renewed.
+     */
+    protected WorkLease openWorkLease(LeaseFactory factory) {
+        String owner = readSetting("NODE_ID", ManagementFactory.getRuntimeMXBean().getName() + "-" + UUID.randomUUID().toString().substring(0, 8));
+        long leaseMillis = readLongSetting("LEASE_MILLIS", 600000);
+        retryAfterMillis = readLongSetting("RETRY_AFTER_MILLIS", 3600000);
+        log.info("Claiming work as " + owner + " with leases of " + leaseMillis + " ms");
+        workLease = factory.open(owner, leaseMillis);
+        return workLease;
+    }
+
+    protected interface LeaseFactory {
+        WorkLease open(String owner, long leaseMillis);
+    }
+
+    protected ExtractionEngine extractionEngine() {
+        return ExtractionEngine.fromSetting(readSetting("ENGINE", ExtractionEngine.SELENIUM.name()));
+    }
+
+    /**
+     * Tells the recrawl schedule, if enabled, that an app has been crawled.
+     *
+     * @param changeSignature digest of the fields whose churn indicates how often the app changes
+     */
+    protected void scheduleNextCrawl(String appId, String changeSignature) {
+        if (recrawlScheduler != null) {
+            recrawlScheduler.crawled(appId, changeSignature);
+        }
+    }
+
+    /**
+     * Called for an app whose crawl failed, it is retried by the recrawl schedule if enabled. With work leases it
+     * is held back until RETRY_AFTER_MILLIS have passed, see retryLater.
+     */
+    protected void scheduleRetry(String appId) {
+        dbWriter.forgetFieldHashes(appId);
+        retryLater(appId);
+        if (recrawlScheduler != null) {
+            recrawlScheduler.failed(appId);
+        }
+    }
+
+    protected void writeAppInfo(AppInfo appInfo) {
+        if (!appendToJournal(Journal.APP_INFO, appInfo.convertToDocument())) {
+            dbWriter.writeAppInfosToDb(Collections.singletonList(appInfo));
+        }
+    }
+
+    protected void writeAppBrainInfo(AppBrainInfo appBrainInfo) {
+        if (!appendToJournal(Journal.APP_BRAIN_INFO, appBrainInfo.convertToDocument())) {
+            dbWriter.writeAppBrainInfos(Collections.singletonList(appBrainInfo));
+        }
+    }
+
+    private boolean appendToJournal(byte type, Document document) {
+        if (journal == null) {
+            return false;
+        }
+        try {
+            journal.append(type, document);
+            return true;
+        } catch (IOException e) {
+            logException(e, "Journal append failed, writing directly to the db");
+            return false;
         }
+    }
+
+    protected boolean keepsSnapshots() {
+        return snapshotStore != null;
+    }
 
-        log.info("Number of ids fetched for update: " + ids.size());
-        return ids;
+    /**
+     * Reads the html of the page the current session shows, once, and keeps it if snapshots are enabled.
+     */
+    protected String capturePageSource(String key, String url) {
+        String html = WebDriverUtils.driver().getPageSource();
+        saveSnapshot(key, url, html);
+        return html;
+    }
+
+    protected void saveSnapshot(String key, String url, String html) {
+        if (snapshotStore == null) {
+            return;
+        }
+        try {
+            snapshotStore.save(key, new PageSnapshot(url, System.currentTimeMillis(), html));
+        } catch (IOException e) {
+            logException(e, "Cannot save snapshot of " + url);
+        }
     }
 
-    private boolean isOutdated(Long ts) {
-        return (System.currentTimeMillis() - ts) > THRESHOLD;
+    /**
+     * Opens a stream over the ids that are due for a crawl. Apps are due when they were never crawled or, with
+     * RECRAWL_AFTER_MILLIS set, when their last crawl is older than that. With work leases, closing the source
+     * hands back the claimed ids that were not crawled.
+     */
+    protected AppIdSource openAppIdSource() {
+        long recrawlAfterMillis = EnvReader.readLongEnvVariable("RECRAWL_AFTER_MILLIS", 0);
+        int batchSize = EnvReader.readIntEnvVariable("ID_BATCH_SIZE", 100);
+
+        WorkLease lease = null;
+        if (usesWorkLeases()) {
+            lease = openWorkLease(new LeaseFactory() {
+                @Override
+                public WorkLease open(String owner, long leaseMillis) {
+                    return dbWriter.openAppLease(settingsPrefix().toLowerCase(), owner, leaseMillis);
+                }
+            });
+        }
+
+        if (Boolean.parseBoolean(readSetting("RECRAWL_SCHEDULER", "false"))) {
+            recrawlScheduler = new RecrawlScheduler(dbWriter, settingsPrefix().toLowerCase(),
+                    EnvReader.readLongEnvVariable("RECRAWL_MIN_INTERVAL_MILLIS", 86400000L),
+                    EnvReader.readLongEnvVariable("RECRAWL_MAX_INTERVAL_MILLIS", 60 * 86400000L));
+            return recrawlScheduler.openDueAppIds(batchSize, lease);
+        }
+        long staleBefore = recrawlAfterMillis > 0 ? System.currentTimeMillis() - recrawlAfterMillis : 0;
+
+        log.info("Streaming ids for update in batches of " + batchSize);
+        return new AppIdSource(dbWriter.streamAppIdsToCrawl(timestampFieldName(), staleBefore, batchSize, lease), dbWriter);
     }
 
     protected void logException(Exception e, String msg) {
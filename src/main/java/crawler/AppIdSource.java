@@ -0,0 +1,54 @@
+package crawler;
+
+import com.mongodb.client.MongoCursor;
+import db.DBWriter;
+import org.bson.Document;
+
+import java.util.Iterator;
+
+import static crawler.appinfo.AppInfo.APP_ID;
+
+/**
+ * Streams app ids to crawl from a server side cursor, only the current batch is held in memory.
+ */
+public class AppIdSource implements Iterator<String> {
+
+    private final MongoCursor<Document> cursor;
+    private final DBWriter dbWriter;
+
+    /**
+     * @param dbWriter decodes the projected documents and receives the field hashes projected along with the ids
+     */
+    public AppIdSource(MongoCursor<Document> cursor, DBWriter dbWriter) {
+        this.cursor = cursor;
+        this.dbWriter = dbWriter;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return cursor.hasNext();
+    }
+
+    @Override
+    public String next() {
+        Document document = dbWriter.decode(cursor.next());
+        dbWriter.primeFieldHashes(document);
+        handOut(document);
+        return document.getString(APP_ID);
+    }
+
+    /**
+     * Called with the projected document of every id handed to the crawler.
+     */
+    protected void handOut(Document document) {
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("remove");
+    }
+
+    public void close() {
+        cursor.close();
+    }
+}
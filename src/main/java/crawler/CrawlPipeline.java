@@ -0,0 +1,270 @@
+package crawler;
+
+import metrics.Metrics;
+import utils.NamedThreadFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Chain of crawl stages joined by bounded queues, e.g. fetch, extract and persist. Every stage has its own worker
+ * threads, so a page can be loaded while the previous one is parsed and the one before is written.
+ *
+ * A full queue blocks the stage feeding it, down to the source. A slow stage therefore slows down the ones before
+ * it instead of piling up pages in memory, and the source is only read as fast as the whole chain keeps up.
+ * The time a stage spends blocked on its successor is recorded as [pipeline].[stage].blocked, which shows the
+ * bottleneck of a run at a glance.
+ *
+ * If the last worker of a stage stops early, e.g. interrupted, it drops the rest of its input through failed so the
+ * stages before it do not block forever on a queue nobody takes from.
+ */
+public class CrawlPipeline {
+    private static final Logger log = Logger.getLogger(CrawlPipeline.class.getName());
+
+    // marks the end of the stream, a worker that takes it puts it back for the other workers of its stage
+    private static final Object END = new Object();
+
+    /**
+     * Hands items to the next stage, blocks while its queue is full.
+     */
+    public interface Emitter<O> {
+        void emit(O item) throws InterruptedException;
+    }
+
+    /**
+     * A step of the pipeline. Workers of a stage call process concurrently, one item at a time each.
+     */
+    public static abstract class Stage<I, O> {
+        private final String name;
+        private final int workers;
+
+        protected Stage(String name, int workers) {
+            this.name = name;
+            this.workers = Math.max(1, workers);
+        }
+
+        /**
+         * Processes an item and emits any number of items to the next stage, none drops it.
+         */
+        protected abstract void process(I item, Emitter<O> out) throws Exception;
+
+        /**
+         * Called when process threw or the item was dropped, the item is not passed on.
+         */
+        protected void failed(I item, Exception e) {
+        }
+    }
+
+    private final String name;
+    private final int queueCapacity;
+    private final List<Stage<?, ?>> stages = new ArrayList<Stage<?, ?>>();
+
+    /**
+     * @param name          prefix of the metrics of the stages
+     * @param queueCapacity items waiting in front of each stage
+     */
+    public CrawlPipeline(String name, int queueCapacity) {
+        this.name = name;
+        this.queueCapacity = Math.max(1, queueCapacity);
+    }
+
+    /**
+     * Appends a stage, it receives what the previously added stage emits.
+     */
+    public CrawlPipeline stage(Stage<?, ?> stage) {
+        stages.add(stage);
+        return this;
+    }
+
+    /**
+     * Feeds every item of the source to the first stage and returns once all stages are done with all of them.
+     */
+    public void run(Iterator<?> source) {
+        if (stages.isEmpty()) {
+            throw new IllegalStateException("Pipeline " + name + " has no stages");
+        }
+
+        List<BlockingQueue<Object>> queues = new ArrayList<BlockingQueue<Object>>(stages.size());
+        for (int i = 0; i < stages.size(); i++) {
+            queues.add(new ArrayBlockingQueue<Object>(queueCapacity));
+        }
+
+        List<ExecutorService> executors = new ArrayList<ExecutorService>(stages.size());
+        for (int i = 0; i < stages.size(); i++) {
+            Stage<?, ?> stage = stages.get(i);
+            BlockingQueue<Object> next = i + 1 < stages.size() ? queues.get(i + 1) : null;
+            AtomicInteger running = new AtomicInteger(stage.workers);
+
+            ExecutorService executor = Executors.newFixedThreadPool(stage.workers, new NamedThreadFactory(name + "-" + stage.name));
+            for (int w = 0; w < stage.workers; w++) {
+                executor.execute(new Worker(stage, queues.get(i), next, running));
+            }
+            executor.shutdown();
+            executors.add(executor);
+        }
+
+        BlockingQueue<Object> first = queues.get(0);
+        Emitter<Object> feed = emitter(first, "source");
+        try {
+            while (source.hasNext()) {
+                feed.emit(source.next());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            putUninterruptibly(first, END);
+        }
+
+        for (ExecutorService executor : executors) {
+            try {
+                while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    log.info("Waiting for pipeline " + name + " to drain");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private Emitter<Object> emitter(final BlockingQueue<Object> queue, final String from) {
+        if (queue == null) {
+            // the last stage has no successor
+            return new Emitter<Object>() {
+                @Override
+                public void emit(Object item) {
+                }
+            };
+        }
+        return new Emitter<Object>() {
+            @Override
+            public void emit(Object item) throws InterruptedException {
+                if (!queue.offer(item)) {
+                    long start = System.nanoTime();
+                    queue.put(item);
+                    Metrics.stage(name + "." + from + ".blocked").recordSince(start);
+                }
+            }
+        };
+    }
+
+    private static void putUninterruptibly(BlockingQueue<Object> queue, Object item) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(item);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Object takeUninterruptibly(BlockingQueue<Object> queue) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return queue.take();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private class Worker implements Runnable {
+        private final Stage<Object, Object> stage;
+        private final BlockingQueue<Object> input;
+        private final BlockingQueue<Object> next;
+        private final AtomicInteger running;
+        private final Emitter<Object> out;
+
+        @SuppressWarnings("unchecked")
+        Worker(Stage<?, ?> stage, BlockingQueue<Object> input, BlockingQueue<Object> next, AtomicInteger running) {
+            this.stage = (Stage<Object, Object>) stage;
+            this.input = input;
+            this.next = next;
+            this.running = running;
+            this.out = emitter(next, stage.name);
+        }
+
+        @Override
+        public void run() {
+            String metric = name + "." + stage.name;
+            boolean ended = false;
+            try {
+                while (true) {
+                    Object item = input.take();
+                    if (item == END) {
+                        putUninterruptibly(input, END);
+                        ended = true;
+                        break;
+                    }
+                    long start = System.nanoTime();
+                    try {
+                        stage.process(item, out);
+                    } catch (InterruptedException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        Metrics.counter(metric + ".failed").incrementAndGet();
+                        failed(metric, item, e);
+                    } finally {
+                        Metrics.stage(metric).recordSince(start);
+                    }
+                }
+            } catch (InterruptedException e) {
+                log.info("Worker of " + metric + " interrupted");
+                Thread.currentThread().interrupt();
+            } finally {
+                boolean last = running.decrementAndGet() == 0;
+                if (!ended && last) {
+                    drain(metric);
+                }
+                // the last worker of a stage ends the next one
+                if (last && next != null) {
+                    putUninterruptibly(next, END);
+                }
+            }
+        }
+
+        /**
+         * Drops the remaining input of a stage whose workers are all gone, up to the end of the stream.
+         */
+        private void drain(String metric) {
+            log.info("All workers of " + metric + " stopped early, dropping the rest of its input");
+            Exception stopped = new IllegalStateException("Stage " + metric + " stopped");
+            for (Object item = takeUninterruptibly(input); item != END; item = takeUninterruptibly(input)) {
+                Metrics.counter(metric + ".dropped").incrementAndGet();
+                failed(metric, item, stopped);
+            }
+            putUninterruptibly(input, END);
+        }
+
+        /**
+         * Runs the failure handler of the stage, a handler that throws must not take the worker down with it.
+         */
+        private void failed(String metric, Object item, Exception e) {
+            try {
+                stage.failed(item, e);
+            } catch (Exception handlerException) {
+                log.info("Failure handler of " + metric + " threw: " + handlerException);
+            }
+        }
+    }
+}
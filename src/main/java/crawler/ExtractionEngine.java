@@ -0,0 +1,23 @@
+package crawler;
+
+/**
+ * How a crawler gets the fields of a detail page.
+ */
+public enum ExtractionEngine {
+    // drive a grid browser and read every field through the session
+    SELENIUM,
+    // fetch the html with a plain HTTP client and parse it in-process, the browser is only used for interactive fields
+    HTTP,
+    // load the page in a grid browser but read all static fields with one script call instead of one call per element
+    SCRIPT,
+    // load the page in a grid browser, read its page source once and parse that in-process
+    SNAPSHOT;
+
+    public static ExtractionEngine fromSetting(String setting) {
+        try {
+            return valueOf(setting.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return SELENIUM;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package crawler;
+
+import db.DBWriter;
+import db.WorkLease;
+import org.bson.Document;
+import utils.DisplayValues;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+import static com.mongodb.client.model.Projections.*;
+import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.set;
+import static crawler.appinfo.AppInfo.APP_ID;
+import static crawler.appinfo.AppInfo.INSTALLS;
+import static crawler.appinfo.AppInfo.INSTALLS_MIN;
+import static crawler.appinfo.AppInfo.TOTAL_NR_OF_REVIEWS;
+
+/**
+ * Persistent recrawl schedule. Every app gets a next due time per crawler, stored as recrawl.[crawler].nextDue,
+ * and work is handed out in due time order.
+ *
+ * The interval between two crawls moves between the configured minimum and maximum depending on how often the
+ * app changed in past crawls (an exponentially weighted rate of change signature flips) and how popular it is
+ * (installs and number of reviews). Popular, fast changing apps come back often, dormant ones rarely.
+ */
+public class RecrawlScheduler {
+    private static final Logger log = Logger.getLogger(RecrawlScheduler.class.getName());
+
+    private static final String RECRAWL = "recrawl";
+    private static final String NEXT_DUE = "nextDue";
+    private static final String SIGNATURE = "signature";
+    private static final String CHANGE_RATE = "changeRate";
+
+    // weight of the latest observation in the change rate
+    private static final double CHANGE_RATE_ALPHA = 0.3;
+    private static final double INITIAL_CHANGE_RATE = 0.5;
+    private static final double CHANGE_WEIGHT = 0.6;
+    private static final double POPULARITY_WEIGHT = 0.4;
+    // 1 billion installs counts as fully popular
+    private static final double MAX_INSTALLS_LOG = 9;
+
+    private final DBWriter dbWriter;
+    private final String crawlerName;
+    private final String prefix;
+    private final long minIntervalMillis;
+    private final long maxIntervalMillis;
+
+    // schedule state of the apps currently handed out, only as many as are in flight
+    private final ConcurrentMap<String, Document> handedOut = new ConcurrentHashMap<String, Document>();
+
+    public RecrawlScheduler(DBWriter dbWriter, String crawlerName, long minIntervalMillis, long maxIntervalMillis) {
+        this.dbWriter = dbWriter;
+        this.crawlerName = crawlerName;
+        this.prefix = RECRAWL + "." + crawlerName + ".";
+        this.minIntervalMillis = minIntervalMillis;
+        this.maxIntervalMillis = Math.max(minIntervalMillis, maxIntervalMillis);
+    }
+
+    public AppIdSource openDueAppIds(int batchSize) {
+        return openDueAppIds(batchSize, null);
+    }
+
+    /**
+     * @param lease claims the due apps for this process, null streams all of them
+     */
+    public AppIdSource openDueAppIds(int batchSize, WorkLease lease) {
+        log.info("Streaming due ids from the recrawl schedule " + prefix + NEXT_DUE);
+        return new AppIdSource(dbWriter.streamDueAppIds(prefix + NEXT_DUE, System.currentTimeMillis(),
+                fields(include(APP_ID, prefix + SIGNATURE, prefix + CHANGE_RATE, INSTALLS, INSTALLS_MIN, TOTAL_NR_OF_REVIEWS),
+                        include(dbWriter.fieldHashesProjection()), excludeId()),
+                batchSize, lease), dbWriter) {
+            @Override
+            protected void handOut(Document document) {
+                handedOut.put(document.getString(APP_ID), document);
+            }
+        };
+    }
+
+    /**
+     * Schedules the next crawl of an app after a successful crawl.
+     *
+     * @param signature digest of the fields that indicate a change of the app, e.g. version and update date
+     */
+    public void crawled(String appId, String signature) {
+        Document previous = handedOut.remove(appId);
+        Document state = previous == null ? null : scheduleState(previous);
+
+        double changeRate = INITIAL_CHANGE_RATE;
+        if (state != null && state.get(CHANGE_RATE) != null) {
+            boolean changed = !signature.equals(state.getString(SIGNATURE));
+            changeRate = (1 - CHANGE_RATE_ALPHA) * ((Number) state.get(CHANGE_RATE)).doubleValue()
+                    + CHANGE_RATE_ALPHA * (changed ? 1 : 0);
+        }
+
+        long now = System.currentTimeMillis();
+        long nextDue = now + interval(changeRate, popularity(previous));
+        dbWriter.updateApp(appId, combine(
+                set(prefix + NEXT_DUE, nextDue),
+                set(prefix + SIGNATURE, signature),
+                set(prefix + CHANGE_RATE, changeRate)));
+    }
+
+    /**
+     * Pushes an app whose crawl failed back by the minimum interval, its change history stays as it is.
+     */
+    public void failed(String appId) {
+        handedOut.remove(appId);
+        dbWriter.updateApp(appId, set(prefix + NEXT_DUE, System.currentTimeMillis() + minIntervalMillis));
+    }
+
+    /**
+     * Interpolates geometrically between the maximum (nothing changes, nobody uses it) and the minimum interval.
+     */
+    long interval(double changeRate, double popularity) {
+        double urgency = CHANGE_WEIGHT * changeRate + POPULARITY_WEIGHT * popularity;
+        double ratio = (double) minIntervalMillis / maxIntervalMillis;
+        return (long) (maxIntervalMillis * Math.pow(ratio, urgency));
+    }
+
+    /**
+     * @return 0 for unknown or unused apps up to 1 for the most installed ones, reviews stand in for installs when
+     * those are unknown
+     */
+    static double popularity(Document document) {
+        if (document == null) {
+            return 0;
+        }
+        long installs;
+        Object installsMin = document.get(INSTALLS_MIN);
+        if (installsMin instanceof Number) {
+            installs = ((Number) installsMin).longValue();
+        } else {
+            // written before the numeric field existed, or a dictionary code if this process does not decode
+            Object installsText = document.get(INSTALLS);
+            Long[] bounds = DisplayValues.installBounds(installsText instanceof String ? (String) installsText : null);
+            installs = bounds == null ? 0 : bounds[0];
+        }
+        Object reviews = document.get(TOTAL_NR_OF_REVIEWS);
+        if (installs == 0 && reviews instanceof Number) {
+            // roughly one review per hundred installs
+            installs = ((Number) reviews).longValue() * 100;
+        }
+        return Math.min(1, Math.log10(installs + 1) / MAX_INSTALLS_LOG);
+    }
+
+    private Document scheduleState(Document document) {
+        Object recrawl = document.get(RECRAWL);
+        if (!(recrawl instanceof Document)) {
+            return null;
+        }
+        Object state = ((Document) recrawl).get(crawlerName);
+        return state instanceof Document ? (Document) state : null;
+    }
+}
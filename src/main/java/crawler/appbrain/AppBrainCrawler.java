@@ -1,12 +1,21 @@
 package crawler.appbrain;
 
 import crawler.AbstractCrawler;
+import crawler.AppIdSource;
+import crawler.ExtractionEngine;
+import metrics.Metrics;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
 import org.openqa.selenium.By;
 import org.openqa.selenium.TimeoutException;
 import org.openqa.selenium.WebElement;
-import utils.WebDriverUtils;
+import utils.EnvReader;
+import utils.HtmlExtractor;
+import utils.HttpFetcher;
+import utils.ScriptExtractor;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import static crawler.appbrain.AppBrainInfo.*;
@@ -18,10 +27,29 @@ import static utils.WebDriverUtils.*;
 public class AppBrainCrawler extends AbstractCrawler {
     private static final Logger log = Logger.getLogger(AppBrainCrawler.class.getName());
 
-    private static final String APPBRAIN_PREFIX = "https://www.appbrain.com/app/";
+    private static final String APPBRAIN_PREFIX = EnvReader.readEnvVariable("APPBRAIN_ORIGIN", "https://www.appbrain.com") + "/app/";
+
+    private final ExtractionEngine engine;
+
+    /**
+     * The html of a page for the extract stage, or the info if it was read in the browser already.
+     */
+    private static class FetchedPage {
+        final String url;
+        final String html;
+        final AppBrainInfo appBrainInfo;
+
+        FetchedPage(String url, String html, AppBrainInfo appBrainInfo) {
+            this.url = url;
+            this.html = html;
+            this.appBrainInfo = appBrainInfo;
+        }
+    }
 
     private AppBrainCrawler() {
         super();
+        engine = extractionEngine();
+        log.info("Extraction engine: " + engine);
     }
 
     public static void main(String[] args) {
@@ -31,33 +59,71 @@ public class AppBrainCrawler extends AbstractCrawler {
 
     @Override
     public void crawl() {
-        List<AppBrainInfo> appInfos = crawlAppBrainInfos(getAppIds());
-        log.info("Crawled " + appInfos.size());
+        AppIdSource appIds = openAppIdSource();
+        try {
+            log.info("Crawled " + crawlAppBrainInfos(appIds));
+        } finally {
+            appIds.close();
+        }
     }
 
-    private List<AppBrainInfo> crawlAppBrainInfos(List<String> appIds) {
-        List<AppBrainInfo> appBrainInfos = new ArrayList<AppBrainInfo>();
+    private int crawlAppBrainInfos(Iterator<String> appIds) {
+        final AtomicInteger crawled = new AtomicInteger();
 
-        // shuffle appIds to lower down risk of stuck in some particular app pages
-        Collections.shuffle(appIds);
+        crawlStaged(appIds, new StagedCrawlTask<FetchedPage, AppBrainInfo>() {
+            @Override
+            protected FetchedPage fetch(String appId) {
+                return fetchAppBrainPage(appId);
+            }
+
+            @Override
+            protected AppBrainInfo extract(String appId, FetchedPage page) {
+                return page.appBrainInfo != null ? page.appBrainInfo : extractFromHtml(page, appId);
+            }
 
-        for (String appId : appIds) {
-            AppBrainInfo appBrainInfo = crawlAppBrainInfoForId(appId);
-            if (appBrainInfo != null) {
-                appBrainInfos.add(appBrainInfo);
+            @Override
+            protected void persist(String appId, AppBrainInfo appBrainInfo) {
+                crawled.incrementAndGet();
                 // immediatly write to avoid information loss when crashing
-                dbWriter.writeAppBrainInfos(Collections.singletonList(appBrainInfo));
+                writeAppBrainInfo(appBrainInfo);
+                scheduleNextCrawl(appId, appBrainInfo.changeSignature());
             }
-        }
-        return appBrainInfos;
+
+            @Override
+            protected void failed(String appId) {
+                scheduleRetry(appId);
+            }
+        });
+        return crawled.get();
     }
 
-    private AppBrainInfo crawlAppBrainInfoForId(String appId) {
+    /**
+     * Loads the AppBrain page of an app. With the HTTP and SNAPSHOT engines only the html is read and parsing is
+     * left to the extract stage, the other engines read the fields in the browser right away.
+     *
+     * @return null if the page did not load
+     */
+    private FetchedPage fetchAppBrainPage(String appId) {
         String url = APPBRAIN_PREFIX + appId;
 
         try {
+            if (engine == ExtractionEngine.HTTP) {
+                String html = HttpFetcher.fetch(url);
+                saveSnapshot(appId, url, html);
+                return new FetchedPage(url, html, null);
+            }
             // have a long wait so we get a built in timeout
             goToUrlWithWaitInSec(url, By.className("app-top-title"), 60);
+            if (engine == ExtractionEngine.SNAPSHOT) {
+                return new FetchedPage(url, capturePageSource(appId, url), null);
+            }
+            if (keepsSnapshots()) {
+                capturePageSource(appId, url);
+            }
+            if (engine == ExtractionEngine.SCRIPT) {
+                return new FetchedPage(url, null, AppBrainPage.toAppBrainInfo(ScriptExtractor.extract(AppBrainPage.SELECTORS), appId));
+            }
+            long start = System.nanoTime();
             AppBrainInfo appBrainInfo = new AppBrainInfo(appId);
             appBrainInfo.setLastAppBrainCrawlTimestamp(System.currentTimeMillis());
             appBrainInfo.setAge(extractAge());
@@ -66,11 +132,14 @@ public class AppBrainCrawler extends AbstractCrawler {
             appBrainInfo.setLibraries(extractLibraries());
             appBrainInfo.setRanking(extractRanking());
             appBrainInfo.setResourcePermissions(extractResourcePermissions());
-            return appBrainInfo;
+            Metrics.stage("extract.appBrain").recordSince(start);
+            return new FetchedPage(url, null, appBrainInfo);
         } catch (TimeoutException e) {
+            // the per-host rate limiter has already backed off, no need to stall this worker
             log.info("TimeoutException: Looking for app-top-title in url: " + url);
-            // 5 min
-            sleep(300000);
+            return null;
+        } catch (HttpFetcher.PageNotFoundException e) {
+            log.info("Page not found: " + url);
             return null;
         } catch (Exception e) {
             logException(e, url);
@@ -78,13 +147,27 @@ public class AppBrainCrawler extends AbstractCrawler {
         }
     }
 
+    private AppBrainInfo extractFromHtml(FetchedPage fetched, String appId) {
+        Document page = Jsoup.parse(fetched.html, fetched.url);
+        if (page.select(AppBrainPage.TITLE_CSS).isEmpty()) {
+            log.info("No app-top-title in url: " + fetched.url);
+            return null;
+        }
+        return AppBrainPage.toAppBrainInfo(HtmlExtractor.extract(page, AppBrainPage.SELECTORS), appId);
+    }
+
     @Override
     public String timestampFieldName() {
         return LAST_APP_BRAIN_CRAWL_TIMESTAMP;
     }
 
+    @Override
+    protected String settingsPrefix() {
+        return "APPBRAIN";
+    }
+
     private String extractRanking() {
-        List<WebElement> elements = WebDriverUtils.driver.findElements(By.xpath("//a[@class='infotile ' and @title='Ranking']"));
+        List<WebElement> elements = driver().findElements(By.xpath("//a[@class='infotile ' and @title='Ranking']"));
         String rank = EMPTY;
         String subtext = EMPTY;
         if (elements.size() != 0) {
@@ -100,7 +183,7 @@ public class AppBrainCrawler extends AbstractCrawler {
     }
 
     private int extractLibraries() {
-        List<WebElement> elements = WebDriverUtils.driver.findElements(By.xpath("//a[@class='infotile ' and @title='Libraries']"));
+        List<WebElement> elements = driver().findElements(By.xpath("//a[@class='infotile ' and @title='Libraries']"));
         int num = 0;
         if (elements.size() != 0) {
             String libraries = extractText(elements.get(0).findElement(By.className("infotile-text")), EMPTY);
@@ -116,7 +199,7 @@ public class AppBrainCrawler extends AbstractCrawler {
     }
 
     private String extractSize() {
-        List<WebElement> elements = WebDriverUtils.driver.findElements(By.xpath("//div[@class='infotile ' and @title='App size']"));
+        List<WebElement> elements = driver().findElements(By.xpath("//div[@class='infotile ' and @title='App size']"));
         String size = EMPTY;
         if (elements.size() != 0) {
             size = extractText(elements.get(0).findElement(By.className("infotile-text")), EMPTY);
@@ -126,7 +209,7 @@ public class AppBrainCrawler extends AbstractCrawler {
     }
 
     private String extractAge() {
-        List<WebElement> elements = WebDriverUtils.driver.findElements(By.xpath("//div[@class='infotile ' and @title='App Age']"));
+        List<WebElement> elements = driver().findElements(By.xpath("//div[@class='infotile ' and @title='App Age']"));
         String text = EMPTY;
         String subtext = EMPTY;
         if (elements.size() != 0) {
@@ -144,7 +227,7 @@ public class AppBrainCrawler extends AbstractCrawler {
 
     private Map<String,String> extractResourcePermissions() {
         Map<String,String> resources = new HashMap<String, String>();
-        List<WebElement> elements = WebDriverUtils.driver.findElements(By.className("app-permissions"));
+        List<WebElement> elements = driver().findElements(By.className("app-permissions"));
         if (elements.size() != 0) {
             WebElement element = elements.get(0);
             List<WebElement> subElements = element.findElements(By.cssSelector("div.default-box-color.vpadding-xs.hpadding-s"));
@@ -162,7 +245,7 @@ public class AppBrainCrawler extends AbstractCrawler {
 
     private Map<String, String> extractCommentsTag() {
         Map<String,String> commentsTag = new HashMap<String, String>();
-        List<WebElement> elements = WebDriverUtils.driver.findElements(By.className("col-sm-4"));
+        List<WebElement> elements = driver().findElements(By.className("col-sm-4"));
 
         // extract tags from Tag cloud, positive Tag cloud and negative Tag cloud
         for (WebElement element : elements) {
@@ -1,12 +1,16 @@
 package crawler.appbrain;
 
 import com.mongodb.BasicDBObject;
+import org.bson.Document;
+import utils.DisplayValues;
 
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
+import static crawler.appinfo.AppInfo.APP_ID;
+
 /**
  * Created by tante on 17/7/18. for AppBrain Information extracting
  */
@@ -21,14 +25,21 @@ public class AppBrainInfo {
     public static final String POSITIVE_COMMENT_TAG = "positiveCommentsTag";
     public static final String NEGATIVE_COMMENT_TAG = "negativeCommentsTag";
     public static final String RESOURCE_PERMISSIONS = "resourcePermissions";
+    // numeric forms of display text, null when the text could not be parsed, so a stale value is overwritten
+    public static final String RANK = "rank";
+    public static final String BINARY_SIZE_BYTES = "binarySizeBytes";
+    public static final String AGE_MILLIS = "ageMillis";
 
     private String appId;
 
     private long lastAppBrainCrawlTimestamp;
     private String ranking;
+    private Integer rank;
     private String size;
+    private Long sizeBytes;
     private int libraries;
     private String age;
+    private Long ageMillis;
     private Map<String, String> commentsTag;
     private Map<String, String> resourcePermissions;
 
@@ -54,6 +65,11 @@ public class AppBrainInfo {
 
     public void setRanking(String ranking) {
         this.ranking = ranking;
+        this.rank = DisplayValues.rank(ranking);
+    }
+
+    public Integer getRank() {
+        return rank;
     }
 
     public String getSize() {
@@ -62,6 +78,11 @@ public class AppBrainInfo {
 
     public void setSize(String size) {
         this.size = size;
+        this.sizeBytes = DisplayValues.bytes(size);
+    }
+
+    public Long getSizeBytes() {
+        return sizeBytes;
     }
 
     public int getLibraries() {
@@ -78,6 +99,11 @@ public class AppBrainInfo {
 
     public void setAge(String age) {
         this.age = age;
+        this.ageMillis = DisplayValues.ageMillis(age);
+    }
+
+    public Long getAgeMillis() {
+        return ageMillis;
     }
 
     public Map<String, String> getCommentsTag() {
@@ -115,4 +141,27 @@ public class AppBrainInfo {
         this.resourcePermissions = resourcePermissions;
     }
 
+    /**
+     * @return digest of the fields that move when the app changes
+     */
+    public String changeSignature() {
+        return getRanking() + "|" + getSize() + "|" + getLibraries();
+    }
+
+    public Document convertToDocument() {
+        Document document = new Document()
+                .append(APP_ID, getAppId())
+                .append(LAST_APP_BRAIN_CRAWL_TIMESTAMP, getLastAppBrainCrawlTimestamp())
+                .append(RANKING, getRanking())
+                .append(BINARY_SIZE, getSize())
+                .append(LIBRARIES, getLibraries())
+                .append(AGE, getAge())
+                .append(COMMENTS_TAG, getCommentsTagDocument())
+                .append(RESOURCE_PERMISSIONS, getResourcePermissionsDocument())
+                .append(RANK, getRank())
+                .append(BINARY_SIZE_BYTES, getSizeBytes())
+                .append(AGE_MILLIS, getAgeMillis());
+        return document;
+    }
+
 }
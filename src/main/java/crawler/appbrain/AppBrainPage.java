@@ -0,0 +1,106 @@
+package crawler.appbrain;
+
+import utils.FieldSelector;
+
+import java.util.*;
+import java.util.logging.Logger;
+
+import static crawler.appbrain.AppBrainInfo.*;
+import static utils.WebDriverUtils.trimText;
+
+/**
+ * Selectors of the infotiles, tag clouds and permissions on an AppBrain app page and the mapping of their raw
+ * values onto AppBrainInfo.
+ */
+public final class AppBrainPage {
+    private static final Logger log = Logger.getLogger(AppBrainPage.class.getName());
+
+    private static final String EMPTY = "";
+    private static final String COMMA = ",";
+    private static final String SPACE = " ";
+
+    static final String RANK_TEXT = "rankText";
+    static final String RANK_SUBTEXT = "rankSubtext";
+    static final String LIBRARIES_TEXT = "librariesText";
+    static final String SIZE_TEXT = "sizeText";
+    static final String AGE_TEXT = "ageText";
+    static final String AGE_SUBTEXT = "ageSubtext";
+    static final String PERMISSIONS = "permissions";
+    static final String TAG_CLOUDS = "tagClouds";
+
+    static final String TAG_CLOUD = "Tag cloud";
+    static final String POSITIVE_TAG_CLOUD = "Positive comment tag cloud";
+    static final String NEGATIVE_TAG_CLOUD = "Negative comment tag cloud";
+
+    public static final String TITLE_CSS = ".app-top-title";
+
+    public static final List<FieldSelector> SELECTORS;
+
+    static {
+        List<FieldSelector> selectors = new ArrayList<FieldSelector>();
+        selectors.add(FieldSelector.text(RANK_TEXT, "a.infotile[title='Ranking'] .infotile-text"));
+        selectors.add(FieldSelector.text(RANK_SUBTEXT, "a.infotile[title='Ranking'] .infotile-subtext"));
+        selectors.add(FieldSelector.text(LIBRARIES_TEXT, "a.infotile[title='Libraries'] .infotile-text"));
+        selectors.add(FieldSelector.text(SIZE_TEXT, "div.infotile[title='App size'] .infotile-text"));
+        selectors.add(FieldSelector.text(AGE_TEXT, "div.infotile[title='App Age'] .infotile-text"));
+        selectors.add(FieldSelector.text(AGE_SUBTEXT, "div.infotile[title='App Age'] .infotile-subtext"));
+        selectors.add(FieldSelector.pairs(PERMISSIONS, ".app-permissions div.default-box-color.vpadding-xs.hpadding-s", "b", "> div"));
+        selectors.add(FieldSelector.pairs(TAG_CLOUDS, ".col-sm-4", "h3", ".tag-cloud-term"));
+        SELECTORS = Collections.unmodifiableList(selectors);
+    }
+
+    private AppBrainPage() {
+    }
+
+    public static AppBrainInfo toAppBrainInfo(Map<String, Object> values, String appId) {
+        AppBrainInfo appBrainInfo = new AppBrainInfo(appId);
+        appBrainInfo.setLastAppBrainCrawlTimestamp(System.currentTimeMillis());
+        appBrainInfo.setAge(trimText(text(values, AGE_TEXT) + SPACE + text(values, AGE_SUBTEXT), EMPTY));
+        appBrainInfo.setSize(text(values, SIZE_TEXT));
+        appBrainInfo.setCommentsTag(toCommentsTag(pairs(values, TAG_CLOUDS)));
+        appBrainInfo.setLibraries(parseLibraries(text(values, LIBRARIES_TEXT)));
+        appBrainInfo.setRanking(trimText(text(values, RANK_TEXT) + SPACE + text(values, RANK_SUBTEXT), EMPTY));
+        appBrainInfo.setResourcePermissions(new HashMap<String, String>(pairs(values, PERMISSIONS)));
+        return appBrainInfo;
+    }
+
+    static int parseLibraries(String libraries) {
+        if (libraries.isEmpty()) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(libraries);
+        } catch (NumberFormatException e) {
+            log.info("Skipping Libraries: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    private static Map<String, String> toCommentsTag(Map<String, String> tagClouds) {
+        Map<String, String> commentsTag = new HashMap<String, String>();
+        for (Map.Entry<String, String> tagCloud : tagClouds.entrySet()) {
+            String tagString = tagCloud.getValue().isEmpty() ? EMPTY : tagCloud.getValue() + SPACE;
+            if (tagCloud.getKey().equals(TAG_CLOUD)) {
+                commentsTag.put(COMMENTS_TAG, tagString.replace(COMMA, EMPTY));
+            }
+            if (tagCloud.getKey().equals(POSITIVE_TAG_CLOUD)) {
+                commentsTag.put(POSITIVE_COMMENT_TAG, tagString.replace(COMMA, EMPTY));
+            }
+            if (tagCloud.getKey().equals(NEGATIVE_TAG_CLOUD)) {
+                commentsTag.put(NEGATIVE_COMMENT_TAG, tagString.replace(COMMA, EMPTY));
+            }
+        }
+        return commentsTag;
+    }
+
+    private static String text(Map<String, Object> values, String name) {
+        Object value = values.get(name);
+        return value == null ? EMPTY : trimText(String.valueOf(value), EMPTY);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, String> pairs(Map<String, Object> values, String name) {
+        Object value = values.get(name);
+        return value instanceof Map ? (Map<String, String>) value : Collections.<String, String>emptyMap();
+    }
+}
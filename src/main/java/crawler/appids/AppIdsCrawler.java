@@ -1,10 +1,15 @@
 package crawler.appids;
 
+import com.mongodb.client.MongoCursor;
 import crawler.AbstractCrawler;
-import org.apache.maven.shared.utils.StringUtils;
+import crawler.CrawlPipeline;
+import db.DBWriter;
+import db.WorkLease;
+import metrics.Metrics;
+import org.bson.Document;
 import org.openqa.selenium.By;
 import org.openqa.selenium.TimeoutException;
-import org.openqa.selenium.WebElement;
+import utils.HttpFetcher;
 import utils.WebDriverUtils;
 
 import java.util.*;
@@ -24,67 +29,67 @@ public class AppIdsCrawler extends AbstractCrawler {
         super();
 
         // categories
-        urls.add("http://play.google.com/store/apps/category/ART_AND_DESIGN/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/AUTO_AND_VEHICLES/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/BEAUTY/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/ANDROID_WEAR/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/BOOKS_AND_REFERENCE/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/BUSINESS/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/COMICS/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/COMMUNICATION/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/DATING/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/EDUCATION/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/ENTERTAINMENT/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/EVENTS/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/FINANCE/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/FOOD_AND_DRINK/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/HEALTH_AND_FITNESS/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/HOUSE_AND_HOME/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/LIBRARIES_AND_DEMO/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/LIFESTYLE/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/MAPS_AND_NAVIGATION/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/MEDICAL/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/MUSIC_AND_AUDIO/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/NEWS_AND_MAGAZINES/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/PARENTING/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/PERSONALIZATION/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/PHOTOGRAPHY/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/PRODUCTIVITY/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/SHOPPING/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/SOCIAL/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/SPORTS/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/TOOLS/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/TRAVEL_AND_LOCAL/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/VIDEO_PLAYERS/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/WEATHER/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/GAME/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/GAME_ACTION/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/GAME_ADVENTURE/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/GAME_ARCADE/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/GAME_BOARD/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/GAME_CARD/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/GAME_CASINO/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/GAME_CASUAL/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/GAME_EDUCATIONAL/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/GAME_MUSIC/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/GAME_PUZZLE/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/GAME_RACING/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/GAME_ROLE_PLAYING/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/GAME_SIMULATION/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/GAME_SPORTS/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/GAME_STRATEGY/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/GAME_TRIVIA/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/GAME_WORD/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/FAMILY/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/FAMILY_ACTION/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/FAMILY_BRAINGAMES/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/FAMILY_CREATE/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/FAMILY_EDUCATION/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/FAMILY_MUSICVIDEO/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
-        urls.add("http://play.google.com/store/apps/category/FAMILY_PRETEND/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/ART_AND_DESIGN/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/AUTO_AND_VEHICLES/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/BEAUTY/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/ANDROID_WEAR/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/BOOKS_AND_REFERENCE/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/BUSINESS/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/COMICS/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/COMMUNICATION/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/DATING/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/EDUCATION/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/ENTERTAINMENT/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/EVENTS/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/FINANCE/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/FOOD_AND_DRINK/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/HEALTH_AND_FITNESS/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/HOUSE_AND_HOME/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/LIBRARIES_AND_DEMO/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/LIFESTYLE/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/MAPS_AND_NAVIGATION/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/MEDICAL/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/MUSIC_AND_AUDIO/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/NEWS_AND_MAGAZINES/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/PARENTING/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/PERSONALIZATION/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/PHOTOGRAPHY/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/PRODUCTIVITY/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/SHOPPING/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/SOCIAL/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/SPORTS/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/TOOLS/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/TRAVEL_AND_LOCAL/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/VIDEO_PLAYERS/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/WEATHER/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/GAME/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/GAME_ACTION/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/GAME_ADVENTURE/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/GAME_ARCADE/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/GAME_BOARD/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/GAME_CARD/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/GAME_CASINO/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/GAME_CASUAL/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/GAME_EDUCATIONAL/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/GAME_MUSIC/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/GAME_PUZZLE/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/GAME_RACING/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/GAME_ROLE_PLAYING/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/GAME_SIMULATION/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/GAME_SPORTS/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/GAME_STRATEGY/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/GAME_TRIVIA/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/GAME_WORD/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/FAMILY/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/FAMILY_ACTION/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/FAMILY_BRAINGAMES/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/FAMILY_CREATE/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/FAMILY_EDUCATION/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/FAMILY_MUSICVIDEO/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/category/FAMILY_PRETEND/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
 
         // top paid overall
-        urls.add("https://play.google.com/store/apps/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
+        urls.add(PLAY_STORE_ORIGIN + "/store/apps/collection/topselling_paid" + "?" + PLAY_STORE_ATTR);
     }
 
     public static void main(String[] args) {
@@ -104,83 +109,162 @@ public class AppIdsCrawler extends AbstractCrawler {
         return null;
     }
 
+    @Override
+    protected String settingsPrefix() {
+        return "APPIDS";
+    }
+
     private Set<String> crawlAppIds() {
-        Set<String> ids = new HashSet<String>();
+        final Set<String> ids = Collections.synchronizedSet(new HashSet<String>());
+
+        if (usesWorkLeases()) {
+            crawlClaimedCategories(ids);
+            return ids;
+        }
 
         // shuffle to not show a pattern
         Collections.shuffle(urls);
 
-        for (String url :  urls) {
-            Set<String> idsForUrl = crawlAppIdsForUrl(url);
-            ids.addAll(idsForUrl);
-            // immediatly write to avoid information loss when crashing
-            dbWriter.writeAppIdsToDb(idsForUrl);
-        }
+        crawlCategories(urls.iterator(), ids);
 
         return ids;
     }
 
-    private Set<String> crawlAppIdsForUrl(String url) {
-        // result
-        Set<String> ids = new HashSet<String>();
+    /**
+     * Several nodes share the category pages through the category collection, every node crawls the pages it
+     * claimed and that were not crawled within REFRESH_MILLIS.
+     */
+    private void crawlClaimedCategories(Set<String> ids) {
+        long refreshMillis = readLongSetting("REFRESH_MILLIS", 86400000L);
+        // there are only some 60 pages, small claims spread them over the nodes
+        int batchSize = Math.max(1, readIntSetting("CLAIM_BATCH_SIZE", 2));
+
+        dbWriter.recordCategories(urls);
+        WorkLease lease = openWorkLease(new LeaseFactory() {
+            @Override
+            public WorkLease open(String owner, long leaseMillis) {
+                return dbWriter.openCategoryLease(owner, leaseMillis);
+            }
+        });
+        final MongoCursor<Document> categories = dbWriter.claimCategoriesToCrawl(lease, System.currentTimeMillis() - refreshMillis, batchSize);
 
         try {
-            WebDriverUtils.goToUrlWithWait(url, By.className("id-card-list"));
-        } catch (TimeoutException e) {
-            log.info("TimeoutException: Looking for id-card-list in url: " + url);
-            return ids;
-        } catch (Exception e) {
-            logException(e, url);
-            return ids;
-        }
+            crawlCategories(new Iterator<String>() {
+                @Override
+                public boolean hasNext() {
+                    return categories.hasNext();
+                }
 
-        WebElement showMoreButton = WebDriverUtils.driver.findElement(By.id("show-more-button"));
-        WebElement footer = WebDriverUtils.driver.findElement(By.className("footer-link"));
+                @Override
+                public String next() {
+                    return categories.next().getString(DBWriter.CATEGORY_URL);
+                }
 
-        int blockFlag = 0;
-        while (blockFlag == 0 || !getComputedStyleProperty(showMoreButton, "display").equals("none")) {
-            WebDriverUtils.scrollDown();
-//            System.out.print(getComputedStyleProperty(driver, showMoreButton, "display") + "\n");
-            if(getComputedStyleProperty(showMoreButton, "display").equals("block")) {
-                blockFlag = 1;
-                WebDriverUtils.scrollDown();
-            }
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException("remove");
+                }
+            }, ids);
+        } finally {
+            categories.close();
+        }
+    }
 
-            if (showMoreButton.isDisplayed()) {
-                clickOnElementWithJs(showMoreButton);
-            }
+    /**
+     * Runs the category pages through two stages. Harvest expands a page in the browser and emits its ids in
+     * chunks while the list is still growing, persist writes them, so a slow write does not hold up a browser.
+     * A last, empty chunk per page tells persist that the page is done.
+     */
+    private void crawlCategories(Iterator<String> categoryUrls, final Set<String> ids) {
+        newPipeline()
+                .stage(new BrowserStage<String, IdChunk>("harvest") {
+                    @Override
+                    protected void render(final String url, final CrawlPipeline.Emitter<IdChunk> out) throws Exception {
+                        long start = System.nanoTime();
+                        boolean loaded;
+                        try {
+                            loaded = crawlAppIdsForUrl(url, new CardSink() {
+                                @Override
+                                public void accept(Map<String, String> cards) {
+                                    try {
+                                        out.emit(new IdChunk(url, cards.keySet(), false));
+                                    } catch (InterruptedException e) {
+                                        Thread.currentThread().interrupt();
+                                    }
+                                }
+                            });
+                        } finally {
+                            Metrics.stage(taskStage()).recordSince(start);
+                        }
+                        out.emit(new IdChunk(url, Collections.<String>emptySet(), loaded));
+                    }
 
-            // check if footer within screen view
-            if (checkWithinView(footer)) {
-                // if show-more button shown, click it. if no more apps after click, then skip it
-                if (getComputedStyleProperty(showMoreButton, "display").equals("block")) {
-                    clickOnElementWithJs(showMoreButton);
-                    sleep();
-                    if (checkWithinView(footer)) {
-                        break;
+                    @Override
+                    protected void failed(String url, Exception e) {
+                        Metrics.counter(taskStage() + ".failed").incrementAndGet();
+                        logException(e, url);
+                        retryLater(url);
+                        finished(url);
                     }
-                } else if (getComputedStyleProperty(showMoreButton, "display").equals("none")) {
-                    break;
-                }
-            }
-        }
+                })
+                .stage(new CrawlPipeline.Stage<IdChunk, Void>("persist", stageWorkers("PERSIST", 1)) {
+                    @Override
+                    protected void process(IdChunk chunk, CrawlPipeline.Emitter<Void> out) {
+                        if (!chunk.ids.isEmpty()) {
+                            ids.addAll(chunk.ids);
+                            dbWriter.writeAppIdsToDb(chunk.ids);
+                            return;
+                        }
+                        // with more than one persist worker this may overtake the last ids of the page
+                        if (!chunk.loaded) {
+                            retryLater(chunk.url);
+                        } else if (usesWorkLeases()) {
+                            dbWriter.markCategoryCrawled(chunk.url);
+                        }
+                        finished(chunk.url);
+                    }
+                })
+                .run(categoryUrls);
+    }
 
-        // make sure scroll down to bottom
-        while(!checkWithinView(footer)) {
-            WebDriverUtils.scrollDown();
-        }
+    /**
+     * Ids found on a category page, or with none the end of the page.
+     */
+    private static class IdChunk {
+        final String url;
+        final Set<String> ids;
+        // whether the page loaded, only set on the end of the page
+        final boolean loaded;
 
-        // collect ids
-        for (WebElement element: WebDriverUtils.getCardList()) {
-            String id = extractAttribute(element, "data-docid", EMPTY);
+        IdChunk(String url, Set<String> ids, boolean loaded) {
+            this.url = url;
+            this.ids = ids;
+            this.loaded = loaded;
+        }
+    }
 
-            if (StringUtils.isNotEmpty(id)) {
-                ids.add(id);
-            }
+    /**
+     * Expands the list of a category page and hands the ids to the sink in chunks while the list is still growing,
+     * so a crash midway loses at most the last chunk.
+     *
+     * @return whether the page loaded and its list was expanded completely
+     */
+    private boolean crawlAppIdsForUrl(String url, CardSink sink) {
+        try {
+            WebDriverUtils.goToUrlWithWait(url, By.className("id-card-list"));
+        } catch (TimeoutException e) {
+            log.info("TimeoutException: Looking for id-card-list in url: " + url);
+            return false;
+        } catch (HttpFetcher.PageNotFoundException e) {
+            log.info("Page not found: " + url);
+            return false;
+        } catch (Exception e) {
+            logException(e, url);
+            return false;
         }
 
-        log.info("Number of ids extracted: " + ids.size());
-        return ids;
+        // a list cut short by the step limit is crawled again like a page that did not load
+        return harvestCards("appIds", sink);
     }
 
 }
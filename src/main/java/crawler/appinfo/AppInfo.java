@@ -2,6 +2,7 @@ package crawler.appinfo;
 
 import com.mongodb.BasicDBObject;
 import org.bson.Document;
+import utils.DisplayValues;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -34,8 +35,14 @@ public class AppInfo {
     public static final String IN_APP_PRODUCTS = "inAppProducts";
     public static final String APP_URL = "appUrl";
     public static final String SIMILAR_APPS = "similarApps";
+    public static final String SIMILAR_APPS_URL = "similarAppsUrl";
     public static final String USER_COMMENTS = "userComments";
     public static final String OFFERS_IN_APP_PURCHASES = "offersInAppPurchases";
+    // numeric forms of display text, null when the text could not be parsed, so a stale value is overwritten
+    public static final String INSTALLS_MIN = "installsMin";
+    public static final String INSTALLS_MAX = "installsMax";
+    public static final String SIZE_BYTES = "sizeBytes";
+    public static final String LAST_UPDATED_MILLIS = "lastUpdatedMillis";
 
 
     private static final int STARS = 5;
@@ -54,8 +61,12 @@ public class AppInfo {
     private String whatsNew;
     private double price;
     private String lastUpdated;
+    private Long lastUpdatedMillis;
     private String size;
+    private Long sizeBytes;
     private String installs;
+    private Long installsMin;
+    private Long installsMax;
     private String currentVersion;
     private String requiredAndroidVersion;
     private String contentRating;
@@ -64,6 +75,7 @@ public class AppInfo {
     private long lastAppInfoCrawlTimestamp;
     private String appUrl;
     private Set<String> similarApps;
+    private String similarAppsUrl;
     private String userComments;
     private String offersInAppPurchases;
 
@@ -175,24 +187,45 @@ public class AppInfo {
 
     public void setLastUpdates(String lastUpdated) {
         this.lastUpdated = lastUpdated;
+        this.lastUpdatedMillis = DisplayValues.dateMillis(lastUpdated);
+    }
+
+    public Long getLastUpdatedMillis() {
+        return lastUpdatedMillis;
     }
 
     public void setSize(String size) {
         this.size = size;
+        this.sizeBytes = DisplayValues.bytes(size);
     }
 
     public String getSize() {
         return size;
     }
 
+    public Long getSizeBytes() {
+        return sizeBytes;
+    }
+
     public void setInstalls(String installs) {
         this.installs = installs;
+        Long[] bounds = DisplayValues.installBounds(installs);
+        this.installsMin = bounds == null ? null : bounds[0];
+        this.installsMax = bounds == null ? null : bounds[1];
     }
 
     public String getInstalls() {
         return installs;
     }
 
+    public Long getInstallsMin() {
+        return installsMin;
+    }
+
+    public Long getInstallsMax() {
+        return installsMax;
+    }
+
     public void setCurrentVersion(String currentVersion) {
         this.currentVersion = currentVersion;
     }
@@ -257,6 +290,14 @@ public class AppInfo {
         this.similarApps = similarApps;
     }
 
+    public String getSimilarAppsUrl() {
+        return similarAppsUrl;
+    }
+
+    public void setSimilarAppsUrl(String similarAppsUrl) {
+        this.similarAppsUrl = similarAppsUrl;
+    }
+
     public String getUserComments() {
         return userComments;
     }
@@ -273,6 +314,13 @@ public class AppInfo {
         this.offersInAppPurchases = offersInAppPurchases;
     }
 
+    /**
+     * @return digest of the fields that change with every release of the app
+     */
+    public String changeSignature() {
+        return getLastUpdated() + "|" + getCurrentVersion();
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
@@ -305,7 +353,7 @@ public class AppInfo {
     }
 
     public Document convertToDocument() {
-        return new Document()
+        Document document = new Document()
                 .append(APP_ID, getId())
                 .append(LAST_APP_INFO_CRAWL_TIMESTAMP, getLastAppInfoCrawlTimestamp())
                 .append(NAME, getName())
@@ -325,11 +373,25 @@ public class AppInfo {
                 .append(CURRENT_VERSION, getCurrentVersion())
                 .append(REQUIRED_ANDROID_VERSION, getRequiredAndroidVersion())
                 .append(CONTENT_RATING, getContentRating())
-                .append(PERMISSIONS, getPermissions())
                 .append(IN_APP_PRODUCTS, getInAppProducts())
                 .append(APP_URL, getAppUrl())
-                .append(SIMILAR_APPS, getSimilarApps())
                 .append(USER_COMMENTS, getUserComments())
                 .append(OFFERS_IN_APP_PURCHASES, getOffersInAppPurchases());
+        // only read in the browser, a crawl without one must not erase the permissions of an earlier crawl
+        if (getPermissions() != null) {
+            document.append(PERMISSIONS, getPermissions());
+        }
+        // similar apps are either crawled inline or filled in later from the cluster page by the frontier stage
+        if (getSimilarApps() != null) {
+            document.append(SIMILAR_APPS, getSimilarApps());
+        }
+        if (getSimilarAppsUrl() != null) {
+            document.append(SIMILAR_APPS_URL, getSimilarAppsUrl());
+        }
+        document.append(INSTALLS_MIN, getInstallsMin())
+                .append(INSTALLS_MAX, getInstallsMax())
+                .append(SIZE_BYTES, getSizeBytes())
+                .append(LAST_UPDATED_MILLIS, getLastUpdatedMillis());
+        return document;
     }
 }
@@ -0,0 +1,202 @@
+package crawler.appinfo;
+
+import org.apache.maven.shared.utils.StringUtils;
+import utils.FieldSelector;
+
+import java.util.*;
+import java.util.logging.Logger;
+
+import static crawler.AbstractCrawler.PLAY_STORE_ORIGIN;
+import static utils.WebDriverUtils.cleanupText;
+import static utils.WebDriverUtils.trimText;
+
+/**
+ * Selectors of the static fields on a Play Store details page and the mapping of their raw values onto AppInfo.
+ * Shared by every extraction engine that does not drive the page itself.
+ */
+public final class AppInfoPage {
+    private static final Logger log = Logger.getLogger(AppInfoPage.class.getName());
+
+    private static final String EMPTY = "";
+    private static final String COMMA = ",";
+    private static final String SPACE = " ";
+    private static final String INSTALL = "install";
+
+    static final String TITLE = "title";
+    static final String PRICE_CONTENT = "priceContent";
+    static final String SCORE = "score";
+    static final String BADGE_TITLE = "badgeTitle";
+    static final String PRIMARY = "primary";
+    static final String CATEGORY = "category";
+    static final String IN_APP_MESSAGE = "inAppMessage";
+    static final String RATING_COUNT = "ratingCount";
+    static final String[] BAR_NUMBERS = {"one", "two", "three", "four", "five"};
+    static final String DESCRIPTION = "description";
+    static final String WHATS_NEW = "whatsNew";
+    static final String REVIEW_TEXTS = "reviewTexts";
+    static final String DATE_PUBLISHED = "datePublished";
+    static final String FILE_SIZE = "fileSize";
+    static final String NUM_DOWNLOADS = "numDownloads";
+    static final String SOFTWARE_VERSION = "softwareVersion";
+    static final String OPERATING_SYSTEMS = "operatingSystems";
+    static final String CONTENT_RATING = "contentRating";
+    static final String META_INFO = "metaInfo";
+    static final String SIMILAR_URL = "similarUrl";
+
+    public static final String TITLE_CSS = ".id-app-title";
+
+    public static final List<FieldSelector> SELECTORS;
+
+    static {
+        List<FieldSelector> selectors = new ArrayList<FieldSelector>();
+        selectors.add(FieldSelector.text(TITLE, TITLE_CSS));
+        selectors.add(FieldSelector.attribute(PRICE_CONTENT, "meta[itemprop='price']", "content"));
+        selectors.add(FieldSelector.text(SCORE, ".score"));
+        selectors.add(FieldSelector.text(BADGE_TITLE, ".badge-title"));
+        selectors.add(FieldSelector.text(PRIMARY, ".primary"));
+        selectors.add(FieldSelector.text(CATEGORY, ".category"));
+        selectors.add(FieldSelector.text(IN_APP_MESSAGE, ".inapp-msg"));
+        selectors.add(FieldSelector.text(RATING_COUNT, ".rating-count"));
+        for (String barNumber : BAR_NUMBERS) {
+            selectors.add(FieldSelector.text(barNumber, "." + barNumber + ">.bar-number"));
+        }
+        selectors.add(FieldSelector.text(DESCRIPTION, ".description"));
+        selectors.add(FieldSelector.text(WHATS_NEW, ".whatsnew"));
+        selectors.add(FieldSelector.textList(REVIEW_TEXTS, "div.review-text"));
+        selectors.add(FieldSelector.text(DATE_PUBLISHED, "div[itemprop='datePublished']"));
+        selectors.add(FieldSelector.text(FILE_SIZE, "div[itemprop='fileSize']"));
+        selectors.add(FieldSelector.text(NUM_DOWNLOADS, "div[itemprop='numDownloads']"));
+        selectors.add(FieldSelector.text(SOFTWARE_VERSION, "div[itemprop='softwareVersion']"));
+        selectors.add(FieldSelector.text(OPERATING_SYSTEMS, "div[itemprop='operatingSystems']"));
+        selectors.add(FieldSelector.text(CONTENT_RATING, "div[itemprop='contentRating']"));
+        selectors.add(FieldSelector.pairs(META_INFO, ".meta-info", ".title", ".content"));
+        selectors.add(FieldSelector.attributeOfElementContaining(SIMILAR_URL, "a", "href", "Similar"));
+        SELECTORS = Collections.unmodifiableList(selectors);
+    }
+
+    private AppInfoPage() {
+    }
+
+    /**
+     * Builds an AppInfo from raw values, fields that need page interaction (permissions, similar apps) stay unset.
+     */
+    public static AppInfo toAppInfo(Map<String, Object> values, String appUrl) {
+        String googleAppName = extractGoogleAppName(appUrl);
+        AppInfo appInfo = new AppInfo(text(values, TITLE), googleAppName, googleAppName);
+        appInfo.setLastAppInfoCrawlTimestamp(System.currentTimeMillis());
+        appInfo.setPrice(parsePrice(text(values, PRICE_CONTENT)));
+        appInfo.setStarRating(parseStarRating(text(values, SCORE)));
+        appInfo.setBadge(text(values, BADGE_TITLE));
+        appInfo.setAuthor(text(values, PRIMARY));
+        appInfo.setCategory(text(values, CATEGORY));
+        appInfo.setOffersInAppPurchases(text(values, IN_APP_MESSAGE));
+        appInfo.setTotalNrOfReviews(parseCount("TotalNrOfReviews", text(values, RATING_COUNT)));
+
+        long[] reviewsPerStar = new long[BAR_NUMBERS.length];
+        for (int i = 0; i < BAR_NUMBERS.length; i++) {
+            reviewsPerStar[i] = parseCount("ReviewsPerStar " + BAR_NUMBERS[i], text(values, BAR_NUMBERS[i]));
+        }
+        appInfo.setReviewsPerStars(reviewsPerStar);
+
+        appInfo.setDescription(cleanupDescription(text(values, DESCRIPTION)));
+        appInfo.setWhatsNew(cleanupWhatsNew(text(values, WHATS_NEW)));
+        appInfo.setUserComments(joinComments(textList(values, REVIEW_TEXTS)));
+        appInfo.setLastUpdates(text(values, DATE_PUBLISHED));
+        appInfo.setSize(text(values, FILE_SIZE));
+        appInfo.setInstalls(text(values, NUM_DOWNLOADS));
+        appInfo.setCurrentVersion(text(values, SOFTWARE_VERSION));
+        appInfo.setRequiredAndroidVersion(text(values, OPERATING_SYSTEMS));
+        appInfo.setContentRating(text(values, CONTENT_RATING));
+        appInfo.setInAppProducts(findInAppProducts(pairs(values, META_INFO)));
+        appInfo.setAppUrl(appUrl);
+        return appInfo;
+    }
+
+    /**
+     * @return link to the similar apps cluster of this page or EMPTY
+     */
+    public static String similarAppsUrl(Map<String, Object> values) {
+        String url = text(values, SIMILAR_URL);
+        // the raw attribute is relative, a browser session resolves it
+        return url.startsWith("/") ? PLAY_STORE_ORIGIN + url : url;
+    }
+
+    static String extractGoogleAppName(String appUrl) {
+        int index = appUrl.indexOf("id=");
+        return trimText(appUrl.substring(index + 3), EMPTY);
+    }
+
+    static double parsePrice(String priceContent) {
+        if (priceContent.contains(INSTALL)) {
+            return 0;
+        }
+
+        // Price text is of the form $2.49
+        try {
+            return Double.parseDouble(priceContent.substring(1).replace(COMMA, EMPTY));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            log.info("Skipping Price: " + e.getMessage());
+            return 0.0;
+        }
+    }
+
+    static double parseStarRating(String score) {
+        try {
+            return Double.parseDouble(score);
+        } catch (NumberFormatException e) {
+            log.info("Skipping StarRating: " + e.getMessage());
+            return 0.0;
+        }
+    }
+
+    static long parseCount(String field, String count) {
+        try {
+            return Long.parseLong(count.replace(COMMA, EMPTY));
+        } catch (NumberFormatException e) {
+            log.info("Skipping " + field + ": " + e.getMessage());
+            return 0;
+        }
+    }
+
+    static String cleanupDescription(String description) {
+        return cleanupText(description, EMPTY, "Read more");
+    }
+
+    static String cleanupWhatsNew(String whatsNew) {
+        return cleanupText(whatsNew, new String[]{"What's New", "Whats new"}, "Read more");
+    }
+
+    static String joinComments(List<String> comments) {
+        StringBuilder sb = new StringBuilder();
+        for (String comment : comments) {
+            sb.append(comment).append(SPACE);
+        }
+        return sb.toString();
+    }
+
+    static String findInAppProducts(Map<String, String> metaInfos) {
+        for (Map.Entry<String, String> metaInfo : metaInfos.entrySet()) {
+            if (StringUtils.equalsIgnoreCase("In-app Products", metaInfo.getKey())) {
+                return trimText(metaInfo.getValue(), EMPTY);
+            }
+        }
+        return EMPTY;
+    }
+
+    private static String text(Map<String, Object> values, String name) {
+        Object value = values.get(name);
+        return value == null ? EMPTY : trimText(String.valueOf(value), EMPTY);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> textList(Map<String, Object> values, String name) {
+        Object value = values.get(name);
+        return value instanceof List ? (List<String>) value : Collections.<String>emptyList();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, String> pairs(Map<String, Object> values, String name) {
+        Object value = values.get(name);
+        return value instanceof Map ? (Map<String, String>) value : Collections.<String, String>emptyMap();
+    }
+}
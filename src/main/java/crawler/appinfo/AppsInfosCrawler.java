@@ -1,13 +1,24 @@
 package crawler.appinfo;
 
 import crawler.AbstractCrawler;
+import crawler.AppIdSource;
+import crawler.ExtractionEngine;
+import crawler.similarapps.SimilarAppsCrawler;
+import metrics.Metrics;
 import org.apache.maven.shared.utils.StringUtils;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
 import org.openqa.selenium.*;
+import utils.HtmlExtractor;
+import utils.HttpFetcher;
+import utils.ScriptExtractor;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import static crawler.appinfo.AppInfo.LAST_APP_INFO_CRAWL_TIMESTAMP;
+import static org.openqa.selenium.support.ui.ExpectedConditions.*;
 import static utils.WebDriverUtils.*;
 
 /**
@@ -16,11 +27,40 @@ import static utils.WebDriverUtils.*;
 public class AppsInfosCrawler extends AbstractCrawler{
     private static final Logger log = Logger.getLogger(AppsInfosCrawler.class.getName());
 
-    private static final String PLAY_STORE_URL = "https://play.google.com/store/apps/details?" + PLAY_STORE_ATTR + "&id=";
-    private static final String INSTALL = "install";
+    private static final String PLAY_STORE_URL = PLAY_STORE_ORIGIN + "/store/apps/details?" + PLAY_STORE_ATTR + "&id=";
+
+    private final ExtractionEngine engine;
+    // with the HTTP engine, still open the page in the browser for permissions and similar apps, which costs a
+    // second page load per app
+    private final boolean interactiveFallback;
+    // only record the similar apps cluster and leave its crawl to the frontier stage
+    private final boolean similarAppsFrontier;
+
+    /**
+     * The html of a page and the fields only the browser can read, for the extract stage, or the complete info if
+     * it was read in the browser already.
+     */
+    private static class FetchedApp {
+        final String url;
+        final String html;
+        final String permissions;
+        final AppInfo appInfo;
+
+        FetchedApp(String url, String html, String permissions, AppInfo appInfo) {
+            this.url = url;
+            this.html = html;
+            this.permissions = permissions;
+            this.appInfo = appInfo;
+        }
+    }
 
     private AppsInfosCrawler() {
         super();
+        engine = extractionEngine();
+        interactiveFallback = Boolean.parseBoolean(readSetting("INTERACTIVE_FALLBACK", "false"));
+        similarAppsFrontier = Boolean.parseBoolean(readSetting("SIMILAR_APPS_FRONTIER", "true"));
+        log.info("Extraction engine: " + engine + ", interactive fallback: " + interactiveFallback
+                + ", similar apps frontier: " + similarAppsFrontier);
     }
 
     public static void main(String[] args) {
@@ -30,47 +70,163 @@ public class AppsInfosCrawler extends AbstractCrawler{
 
     @Override
     public void crawl() {
-        List<AppInfo> appInfos = crawlAppInfos(getAppIds());
-        log.info("Crawled " + appInfos.size());
+        AppIdSource appIds = openAppIdSource();
+        try {
+            log.info("Crawled " + crawlAppInfos(appIds));
+        } finally {
+            appIds.close();
+        }
     }
 
-    private List<AppInfo> crawlAppInfos(List<String> appIds) {
-        List<AppInfo> appInfos = new ArrayList<AppInfo>();
+    private int crawlAppInfos(Iterator<String> appIds) {
+        final AtomicInteger crawled = new AtomicInteger();
 
-        // shuffle appIds to lower down risk of stuck in some particular app pages
-        Collections.shuffle(appIds);
+        crawlStaged(appIds, new StagedCrawlTask<FetchedApp, AppInfo>() {
+            @Override
+            protected FetchedApp fetch(String appId) {
+                return fetchAppPage(PLAY_STORE_URL + appId);
+            }
 
-        for (String appId : appIds) {
-            AppInfo appInfo = crawlAppInfoForUrl(PLAY_STORE_URL + appId);
-            if (appInfo != null) {
-                appInfos.add(appInfo);
+            @Override
+            protected AppInfo extract(String appId, FetchedApp page) {
+                return page.appInfo != null ? page.appInfo : extractFromHtml(page);
+            }
+
+            @Override
+            protected void persist(String appId, AppInfo appInfo) {
+                crawled.incrementAndGet();
                 // immediatly write to avoid information loss when crashing
-                dbWriter.writeAppInfosToDb(Collections.singletonList(appInfo));
+                writeAppInfo(appInfo);
+                if (appInfo.getSimilarAppsUrl() != null) {
+                    dbWriter.recordClusters(Collections.singleton(appInfo.getSimilarAppsUrl()));
+                }
+                scheduleNextCrawl(appId, appInfo.changeSignature());
             }
-        }
-        return appInfos;
+
+            @Override
+            protected void failed(String appId) {
+                scheduleRetry(appId);
+            }
+        });
+        return crawled.get();
     }
 
-    private AppInfo crawlAppInfoForUrl(String appUrl) {
+    /**
+     * Loads the details page of an app. Where the fields can be parsed from the html, i.e. the HTTP engine without
+     * interactive fallback and the SNAPSHOT engine with the similar apps frontier, only the html and the
+     * interactive fields are read and parsing is left to the extract stage. Otherwise the app info is completed in
+     * the browser.
+     *
+     * @return null if the page did not load
+     */
+    private FetchedApp fetchAppPage(String appUrl) {
         try {
+            if (engine == ExtractionEngine.HTTP) {
+                if (interactiveFallback) {
+                    AppInfo appInfo = crawlAppInfoOverHttp(appUrl);
+                    return appInfo == null ? null : new FetchedApp(appUrl, null, null, appInfo);
+                }
+                String html = HttpFetcher.fetch(appUrl);
+                saveSnapshot(AppInfoPage.extractGoogleAppName(appUrl), appUrl, html);
+                return new FetchedApp(appUrl, html, null, null);
+            }
             goToUrlWithWait(appUrl, By.className("id-app-title"));
-            return extractAppInfo(appUrl);
+            if (engine == ExtractionEngine.SNAPSHOT && similarAppsFrontier) {
+                scrollToBottomOfPage();
+                String html = capturePageSource(AppInfoPage.extractGoogleAppName(appUrl), appUrl);
+                return new FetchedApp(appUrl, html, extractPermissions(), null);
+            }
+            if (engine == ExtractionEngine.SCRIPT || engine == ExtractionEngine.SNAPSHOT) {
+                return new FetchedApp(appUrl, null, null, extractAppInfoInOneRead(appUrl));
+            }
+            if (keepsSnapshots()) {
+                capturePageSource(AppInfoPage.extractGoogleAppName(appUrl), appUrl);
+            }
+            return new FetchedApp(appUrl, null, null, extractAppInfo(appUrl));
 
         } catch (TimeoutException e) {
             log.info("TimeoutException: Looking for id-app-title in url: " + appUrl);
+        } catch (HttpFetcher.PageNotFoundException e) {
+            log.info("Page not found: " + appUrl);
         } catch (Exception e) {
             logException(e, appUrl);
         }
         return null;
     }
 
+    /**
+     * Parses a page fetched without interaction, runs in the extract stage without a session.
+     */
+    private AppInfo extractFromHtml(FetchedApp fetched) {
+        Document page = Jsoup.parse(fetched.html, fetched.url);
+        if (page.select(AppInfoPage.TITLE_CSS).isEmpty()) {
+            log.info("No id-app-title in url: " + fetched.url);
+            return null;
+        }
+
+        Map<String, Object> values = HtmlExtractor.extract(page, AppInfoPage.SELECTORS);
+        AppInfo appInfo = AppInfoPage.toAppInfo(values, fetched.url);
+        if (fetched.permissions != null) {
+            appInfo.setPermissions(fetched.permissions);
+        }
+        if (similarAppsFrontier) {
+            // only records the cluster url, no navigation
+            collectSimilarApps(appInfo, AppInfoPage.similarAppsUrl(values));
+        }
+        return appInfo;
+    }
+
+    private AppInfo crawlAppInfoOverHttp(String appUrl) throws Exception {
+        String html = HttpFetcher.fetch(appUrl);
+        saveSnapshot(AppInfoPage.extractGoogleAppName(appUrl), appUrl, html);
+        Document page = Jsoup.parse(html, appUrl);
+        if (page.select(AppInfoPage.TITLE_CSS).isEmpty()) {
+            log.info("No id-app-title in url: " + appUrl);
+            return null;
+        }
+
+        Map<String, Object> values = HtmlExtractor.extract(page, AppInfoPage.SELECTORS);
+        AppInfo appInfo = AppInfoPage.toAppInfo(values, appUrl);
+        // the permissions dialog and the similar apps list only exist in a rendered page
+        goToUrlWithWait(appUrl, By.className("id-app-title"));
+        appInfo.setPermissions(extractPermissions());
+        collectSimilarApps(appInfo, AppInfoPage.similarAppsUrl(values));
+        return appInfo;
+    }
+
+    private AppInfo extractAppInfoInOneRead(String appUrl) {
+        scrollToBottomOfPage();
+        Map<String, Object> values;
+        if (engine == ExtractionEngine.SNAPSHOT) {
+            String html = capturePageSource(AppInfoPage.extractGoogleAppName(appUrl), appUrl);
+            values = HtmlExtractor.extract(Jsoup.parse(html, appUrl), AppInfoPage.SELECTORS);
+        } else {
+            if (keepsSnapshots()) {
+                capturePageSource(AppInfoPage.extractGoogleAppName(appUrl), appUrl);
+            }
+            values = ScriptExtractor.extract(AppInfoPage.SELECTORS);
+        }
+
+        AppInfo appInfo = AppInfoPage.toAppInfo(values, appUrl);
+        // dialogs and navigation can not be folded into the script
+        appInfo.setPermissions(extractPermissions());
+        collectSimilarApps(appInfo, AppInfoPage.similarAppsUrl(values));
+        return appInfo;
+    }
+
     @Override
     public String timestampFieldName() {
         return LAST_APP_INFO_CRAWL_TIMESTAMP;
     }
 
+    @Override
+    protected String settingsPrefix() {
+        return "APPINFO";
+    }
+
     private AppInfo extractAppInfo(String appUrl) {
-        String googleAppName = extractGoogleAppName(appUrl);
+        long start = System.nanoTime();
+        String googleAppName = AppInfoPage.extractGoogleAppName(appUrl);
         AppInfo appInfo = new AppInfo(extractAppTitle(), googleAppName, googleAppName);
         appInfo.setLastAppInfoCrawlTimestamp(System.currentTimeMillis());
         appInfo.setPrice(extractPrice());
@@ -84,6 +240,7 @@ public class AppsInfosCrawler extends AbstractCrawler{
         appInfo.setDescription(extractDescription());
         appInfo.setWhatsNew(extractWhatsNew());
         appInfo.setUserComments(extractUserComments());
+        Metrics.stage("extract.appInfo").recordSince(start);
         extractAdditionalInfo(appInfo);
         appInfo.setAppUrl(appUrl);
         return appInfo;
@@ -99,12 +256,12 @@ public class AppsInfosCrawler extends AbstractCrawler{
         appInfo.setContentRating(extractContentRating());
         appInfo.setPermissions(extractPermissions());
         appInfo.setInAppProducts(extractInAppProducts());
-        appInfo.setSimilarApps(extractSimilarApps());
+        collectSimilarApps(appInfo, extractElementsAttributeIfFound(By.xpath("//a[contains(text(), 'Similar')]"), "href", EMPTY));
     }
 
     private void scrollToBottomOfPage() {
         scrollToElement("footer-link");
-        sleep();
+        waitFor("appInfo.additionalInfo", presenceOfElementLocated(By.cssSelector("div[itemprop='datePublished']")), DEFAULT_WAIT_MILLIS);
     }
 
     private String extractLastUpdated() {
@@ -132,25 +289,28 @@ public class AppsInfosCrawler extends AbstractCrawler{
     }
 
     private String extractPermissions() {
+        long start = System.nanoTime();
         try {
-            clickOnElementWithJs(driver.findElement(By.className("id-view-permissions-details")));
-            sleep();
+            clickOnElementWithJs(driver().findElement(By.className("id-view-permissions-details")));
+            waitFor("permissions.dialogVisible", visibilityOfElementLocated(By.className("id-permission-buckets")), DEFAULT_WAIT_MILLIS);
 
             String permissionsDetailsString = extractElementContentIfFound(By.className("id-permission-buckets"), EMPTY);
 
-            clickOnElementWithJs(driver.findElement(By.id("close-dialog-button")));
-            sleep();
+            clickOnElementWithJs(driver().findElement(By.id("close-dialog-button")));
+            waitFor("permissions.dialogClosed", invisibilityOfElementLocated(By.className("id-permission-buckets")), DEFAULT_WAIT_MILLIS);
 
             return permissionsDetailsString;
         } catch (Exception e) {
             log.info("Skipping Permissions: " + e.getMessage());
             return EMPTY;
+        } finally {
+            Metrics.stage("extract.permissions").recordSince(start);
         }
     }
 
     private String extractInAppProducts() {
         try {
-            List<WebElement> metaInfos = driver.findElements(By.className("meta-info"));
+            List<WebElement> metaInfos = driver().findElements(By.className("meta-info"));
 
             for (WebElement metaInfo : metaInfos) {
                 String title = extractText(metaInfo.findElement(By.className("title")), EMPTY);
@@ -166,24 +326,7 @@ public class AppsInfosCrawler extends AbstractCrawler{
     }
 
     private double extractPrice() {
-        String priceContent = extractElementsAttributeIfFound(By.cssSelector("meta[itemprop='price']"), "Content", EMPTY);
-
-        if (priceContent.contains(INSTALL)) {
-            return 0;
-        }
-
-        // Price text is of the form $2.49
-        try {
-            return Double.parseDouble(priceContent.substring(1).replace(COMMA, EMPTY));
-        } catch (NumberFormatException | IndexOutOfBoundsException e) {
-            log.info("Skipping Price: " + e.getMessage());
-            return EMPTY_DOUBLE;
-        }
-    }
-
-    private String extractGoogleAppName(String appUrl) {
-        int index = appUrl.indexOf("id=");
-        return trimText(appUrl.substring(index + 3), EMPTY);
+        return AppInfoPage.parsePrice(extractElementsAttributeIfFound(By.cssSelector("meta[itemprop='price']"), "Content", EMPTY));
     }
 
     private String extractAppTitle() {
@@ -191,12 +334,7 @@ public class AppsInfosCrawler extends AbstractCrawler{
     }
 
     private double extractStarRating() {
-        try {
-            return Double.parseDouble(extractElementContentIfFound(By.className("score"), EMPTY));
-        } catch (NumberFormatException e) {
-            log.info("Skipping StarRating: " + e.getMessage());
-            return EMPTY_DOUBLE;
-        }
+        return AppInfoPage.parseStarRating(extractElementContentIfFound(By.className("score"), EMPTY));
     }
 
     private String extractBadge() {
@@ -212,99 +350,65 @@ public class AppsInfosCrawler extends AbstractCrawler{
     }
 
     private long extractTotalNrOfReviews() {
-        try {
-            return Long.parseLong(extractElementContentIfFound(By.className("rating-count"), EMPTY).replace(COMMA, EMPTY));
-        } catch (NumberFormatException e) {
-            log.info("Skipping TotalNrOfReviews: " + e.getMessage());
-            return EMPTY_INT;
-        }
+        return AppInfoPage.parseCount("TotalNrOfReviews", extractElementContentIfFound(By.className("rating-count"), EMPTY));
     }
 
     private long[] extractReviewsPerStar() {
-        String[] classNames = {"one", "two", "three", "four", "five"};
-        long[] reviewsPerStar = new long[5];
+        String[] classNames = AppInfoPage.BAR_NUMBERS;
+        long[] reviewsPerStar = new long[classNames.length];
 
         for (int i = 0; i < reviewsPerStar.length; i++) {
             String className = classNames[i];
-            String text = extractElementContentIfFound(By.cssSelector("." + className + ">.bar-number"), EMPTY).replace(COMMA, EMPTY);
-
-            try {
-                reviewsPerStar[i] =  Long.parseLong(text);
-            } catch (NumberFormatException e) {
-                log.info("Skipping ReviewsPerStar " + className + ": " + e.getMessage());
-                reviewsPerStar[i] = EMPTY_INT;
-            }
+            String text = extractElementContentIfFound(By.cssSelector("." + className + ">.bar-number"), EMPTY);
+            reviewsPerStar[i] = AppInfoPage.parseCount("ReviewsPerStar " + className, text);
         }
 
         return reviewsPerStar;
     }
 
     private String extractDescription() {
-        return cleanupText(extractElementContentIfFound(By.className("description"), EMPTY), EMPTY, "Read more");
+        return AppInfoPage.cleanupDescription(extractElementContentIfFound(By.className("description"), EMPTY));
     }
 
     private String extractWhatsNew() {
         try {
             scrollToElement("whatsnew");
-            return cleanupText(extractElementContentIfFound(By.className("whatsnew"), EMPTY), new String[]{"What's New", "Whats new"}, "Read more");
+            return AppInfoPage.cleanupWhatsNew(extractElementContentIfFound(By.className("whatsnew"), EMPTY));
         } catch (Exception e) {
             log.info("Skipping What's New: " + e.getMessage());
             return EMPTY;
         }
     }
 
-    private Set<String> extractSimilarApps() {
-        // result
-        Set<String> ids = new HashSet<String>();
-        String url = extractElementsAttributeIfFound(By.xpath("//a[contains(text(), 'Similar')]"), "href", EMPTY);
-
-        if (StringUtils.isEmpty(url)) {
+    /**
+     * Either records the cluster page for the frontier stage or, inline, crawls it right away. Crawling it inline
+     * navigates away from the details page, so this has to come last.
+     */
+    private void collectSimilarApps(AppInfo appInfo, String clusterUrl) {
+        if (StringUtils.isEmpty(clusterUrl)) {
             log.info("Skipping SimilarApps: Got EMPTY url");
-            return ids;
-        }
-
-        url += "&";
-        url += PLAY_STORE_ATTR;
-
-        try {
-            goToUrlWithWait(url, By.className("id-card-list"));
-
-        } catch (TimeoutException e) {
-            log.info("TimeoutException: Looking for id-card-list in url: " + url);
-            return ids;
-        } catch (Exception e) {
-            logException(e, url);
-            return ids;
-        }
-
-        WebElement showMoreButton = driver.findElement(By.id("show-more-button"));
-        WebElement footer = driver.findElement(By.className("footer-link"));
-
-        while (!footer.isDisplayed()) {
-            scrollDown();
-            if (!getComputedStyleProperty(showMoreButton, "display").equals("none")) {
-                clickOnElementWithJs(showMoreButton);
+            if (!similarAppsFrontier) {
+                appInfo.setSimilarApps(new HashSet<String>());
             }
+            return;
         }
 
-        // collect ids
-        for (WebElement element : getCardList()) {
-            String id = extractAttribute(element, "data-docid", EMPTY);
-            String price = extractText(element.findElement(By.cssSelector("div.reason-set span.display-price")), EMPTY);
-
-            if (StringUtils.isNotEmpty(id) && !StringUtils.equalsIgnoreCase(price, "FREE")) {
-                ids.add(id);
-            }
+        if (similarAppsFrontier) {
+            appInfo.setSimilarAppsUrl(clusterUrl);
+            return;
         }
 
-        log.info("Number of ids extracted: " + ids.size());
-        return ids;
+        Map<String, String> cards = SimilarAppsCrawler.harvestCluster(clusterUrl);
+        Set<String> ids = cards == null ? new HashSet<String>() : SimilarAppsCrawler.paidApps(cards);
+        log.info("Number of similar apps extracted: " + ids.size());
+        appInfo.setSimilarApps(ids);
     }
 
     private String extractUserComments() {
+        long start = System.nanoTime();
         try {
-            scrollDown();
-            List<WebElement> elements = driver.findElements(By.xpath("//div[@class='review-text']"));
+            scrollDown("userComments.scroll", presenceOfElementLocated(By.xpath("//div[@class='review-text']")));
+            List<WebElement> elements = driver().findElements(By.xpath("//div[@class='review-text']"));
 
             StringBuilder comments = new StringBuilder();
             for (WebElement element : elements) {
@@ -315,6 +419,8 @@ public class AppsInfosCrawler extends AbstractCrawler{
         } catch (Exception e) {
             log.info("Skipping User Comments: " + e.getMessage());
             return EMPTY;
+        } finally {
+            Metrics.stage("extract.userComments").recordSince(start);
         }
     }
 
@@ -0,0 +1,160 @@
+package crawler.similarapps;
+
+import com.mongodb.client.MongoCursor;
+import crawler.AbstractCrawler;
+import db.DBWriter;
+import metrics.Metrics;
+import org.apache.maven.shared.utils.StringUtils;
+import org.bson.Document;
+import org.openqa.selenium.By;
+import org.openqa.selenium.TimeoutException;
+import utils.EnvReader;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import static utils.WebDriverUtils.*;
+
+/**
+ * Frontier stage that grows the catalogue along the similar apps graph.
+ *
+ * The app info crawler only records which cluster page an app links to. This crawler visits every known cluster
+ * page once per refresh interval, no matter how many apps point at it, adds all ids found there to the app
+ * collection and sets them as similar apps of every app linking to the cluster. Newly found apps get their own
+ * cluster pages recorded when their info is crawled, which widens the frontier on the next run.
+ */
+public class SimilarAppsCrawler extends AbstractCrawler {
+    private static final Logger log = Logger.getLogger(SimilarAppsCrawler.class.getName());
+
+    private static final String FREE = "FREE";
+
+    private SimilarAppsCrawler() {
+        super();
+    }
+
+    public static void main(String[] args) {
+        SimilarAppsCrawler crawler = new SimilarAppsCrawler();
+        crawler.run();
+    }
+
+    @Override
+    public void crawl() {
+        long refreshMillis = readLongSetting("REFRESH_MILLIS", 7 * 86400000L);
+        int batchSize = EnvReader.readIntEnvVariable("ID_BATCH_SIZE", 100);
+
+        final MongoCursor<Document> clusters = dbWriter.streamClustersToCrawl(System.currentTimeMillis() - refreshMillis, batchSize);
+        final AtomicInteger crawled = new AtomicInteger();
+        final AtomicInteger found = new AtomicInteger();
+
+        try {
+            crawlConcurrently(new Iterator<String>() {
+                @Override
+                public boolean hasNext() {
+                    return clusters.hasNext();
+                }
+
+                @Override
+                public String next() {
+                    return clusters.next().getString(DBWriter.CLUSTER_URL);
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException("remove");
+                }
+            }, new CrawlTask() {
+                @Override
+                public void crawl(String clusterUrl) {
+                    // unknown ids are inserted as they appear, known ones are left untouched
+                    Map<String, String> cards = harvestCluster(clusterUrl, new CardSink() {
+                        @Override
+                        public void accept(Map<String, String> chunk) {
+                            dbWriter.writeAppIdsToDb(chunk.keySet());
+                        }
+                    });
+                    if (cards == null) {
+                        // stays due and is retried on the next run
+                        return;
+                    }
+                    crawled.incrementAndGet();
+                    found.addAndGet(cards.size());
+                    dbWriter.writeCluster(clusterUrl, paidApps(cards));
+                }
+            });
+        } finally {
+            clusters.close();
+        }
+
+        log.info("Crawled " + crawled.get() + " clusters with " + found.get() + " cards");
+    }
+
+    @Override
+    public String timestampFieldName() {
+        return DBWriter.CLUSTER_LAST_CRAWLED;
+    }
+
+    @Override
+    protected String settingsPrefix() {
+        return "SIMILARAPPS";
+    }
+
+    /**
+     * Opens a similar apps cluster page in the current session and expands it until all cards are loaded.
+     *
+     * @return the display price of every card by app id, null if the page did not load. A list that could not be
+     * expanded completely is returned as far as it got
+     */
+    public static Map<String, String> harvestCluster(String clusterUrl) {
+        return harvestCluster(clusterUrl, null, false);
+    }
+
+    /**
+     * Same as above, also handing the cards to the sink in chunks while the page expands. Returns null for a list
+     * that could not be expanded completely as well, so the cluster stays due.
+     */
+    public static Map<String, String> harvestCluster(String clusterUrl, CardSink sink) {
+        return harvestCluster(clusterUrl, sink, true);
+    }
+
+    private static Map<String, String> harvestCluster(String clusterUrl, final CardSink sink, boolean complete) {
+        String url = clusterUrl + (clusterUrl.contains("?") ? "&" : "?") + PLAY_STORE_ATTR;
+
+        try {
+            goToUrlWithWait(url, By.className("id-card-list"));
+        } catch (TimeoutException e) {
+            log.info("TimeoutException: Looking for id-card-list in url: " + url);
+            return null;
+        } catch (Exception e) {
+            log.info("Skipping cluster " + url + ": " + e.getMessage());
+            return null;
+        }
+
+        long start = System.nanoTime();
+        final Map<String, String> cards = new HashMap<String, String>();
+        boolean exhausted = harvestCards("similarApps", new CardSink() {
+            @Override
+            public void accept(Map<String, String> chunk) {
+                cards.putAll(chunk);
+                if (sink != null) {
+                    sink.accept(chunk);
+                }
+            }
+        });
+        Metrics.stage("extract.similarApps").recordSince(start);
+        return exhausted || !complete ? cards : null;
+    }
+
+    /**
+     * Similar apps only list the paid apps of a cluster.
+     */
+    public static Set<String> paidApps(Map<String, String> cards) {
+        Set<String> ids = new HashSet<String>();
+        for (Map.Entry<String, String> card : cards.entrySet()) {
+            if (!StringUtils.equalsIgnoreCase(card.getValue(), FREE)) {
+                ids.add(card.getKey());
+            }
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,107 @@
+package db;
+
+import com.mongodb.MongoClient;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Sorts;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.mongodb.client.model.Filters.*;
+import static com.mongodb.client.model.Projections.*;
+import static crawler.appinfo.AppInfo.APP_ID;
+
+/**
+ * Read-only access to the app collection, for exports and other tools that only scan it. Unlike DBWriter it creates
+ * no indexes on the collection and starts no write buffers.
+ */
+public class AppReader {
+
+    private final MongoClient mongoClient;
+    private final MongoDatabase db;
+    private final MongoCollection<Document> mongoCollection;
+    private FieldDictionary dictionary;
+
+    public AppReader(String host, int port, String databaseName, String collectionName) {
+        mongoClient = new MongoClient(host, port);
+        db = mongoClient.getDatabase(databaseName);
+        mongoCollection = db.getCollection(collectionName);
+    }
+
+    /**
+     * For a collection written with dictionary encoding, see DBWriter.enableDictionaryEncoding. Documents read
+     * through decode() get their text back.
+     */
+    public void enableDictionaryDecoding() {
+        dictionary = DBWriter.openDictionary(db);
+    }
+
+    /**
+     * Turns dictionary codes in a document read from the app collection back into text, in place.
+     */
+    public Document decode(Document document) {
+        return dictionary == null ? document : dictionary.decode(document);
+    }
+
+    /**
+     * Splits the app ids into about equally sized ranges from a random sample, so an export can scan them in
+     * parallel over the unique APP_ID index.
+     *
+     * @return the sorted lower bounds of all ranges but the first, at most partitions - 1
+     */
+    public List<String> sampleAppIdSplits(int partitions) {
+        if (partitions <= 1) {
+            return Collections.emptyList();
+        }
+        List<String> sample = new ArrayList<String>();
+        for (Document document : mongoCollection.aggregate(Arrays.asList(
+                Aggregates.sample(partitions * 20),
+                Aggregates.project(fields(include(APP_ID), excludeId()))))) {
+            String appId = document.getString(APP_ID);
+            if (appId != null) {
+                sample.add(appId);
+            }
+        }
+        Collections.sort(sample);
+
+        List<String> splits = new ArrayList<String>(partitions - 1);
+        for (int i = 1; i < partitions && !sample.isEmpty(); i++) {
+            String split = sample.get(i * sample.size() / partitions);
+            if (splits.isEmpty() || !splits.get(splits.size() - 1).equals(split)) {
+                splits.add(split);
+            }
+        }
+        return splits;
+    }
+
+    /**
+     * Streams the apps with an id in [fromInclusive, toExclusive) in id order, null leaves a side open.
+     */
+    public MongoCursor<Document> streamAppRange(String fromInclusive, String toExclusive, Bson projection, int batchSize) {
+        List<Bson> bounds = new ArrayList<Bson>(2);
+        if (fromInclusive != null) {
+            bounds.add(gte(APP_ID, fromInclusive));
+        }
+        if (toExclusive != null) {
+            bounds.add(lt(APP_ID, toExclusive));
+        }
+        Bson filter = bounds.isEmpty() ? new Document() : and(bounds);
+        return mongoCollection.find(filter)
+                .sort(Sorts.ascending(APP_ID))
+                .projection(projection)
+                .batchSize(batchSize)
+                .noCursorTimeout(true)
+                .iterator();
+    }
+
+    public void close() {
+        mongoClient.close();
+    }
+}
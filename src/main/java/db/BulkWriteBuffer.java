@@ -0,0 +1,197 @@
+package db;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.WriteModel;
+import metrics.Metrics;
+import org.bson.Document;
+import utils.NamedThreadFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Groups write models into unordered bulk writes. A batch is flushed as soon as it reaches the
+ * configured size or when its oldest entry is older than the configured age.
+ *
+ * A batch that fails as a whole, e.g. on a lost connection, is put back in front of the pending models and written
+ * again with the next flush; only models the server rejected individually are dropped.
+ */
+public class BulkWriteBuffer {
+    private static final Logger log = Logger.getLogger(BulkWriteBuffer.class.getName());
+
+    private static final BulkWriteOptions UNORDERED = new BulkWriteOptions().ordered(false);
+
+    private final MongoCollection<Document> collection;
+    private final int batchSize;
+    private final long maxAgeMillis;
+    private final ScheduledExecutorService ageFlusher;
+
+    private List<WriteModel<Document>> pending = new ArrayList<WriteModel<Document>>();
+    private long oldestPendingMillis;
+    private volatile WriteListener listener;
+
+    /**
+     * Told which models of a batch the server applied, on the thread that wrote the batch. Batches that fail as a
+     * whole are requeued and reported once they are written.
+     */
+    public interface WriteListener {
+        void written(List<WriteModel<Document>> batch, Set<Integer> failedIndexes);
+    }
+
+    public BulkWriteBuffer(MongoCollection<Document> collection, int batchSize, long maxAgeMillis) {
+        this.collection = collection;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxAgeMillis = maxAgeMillis;
+
+        if (this.batchSize > 1 && maxAgeMillis > 0) {
+            ageFlusher = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("bulk-flusher"));
+            long period = Math.max(1, maxAgeMillis / 2);
+            ageFlusher.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    flushIfOlderThan(BulkWriteBuffer.this.maxAgeMillis);
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            ageFlusher = null;
+        }
+    }
+
+    public void setWriteListener(WriteListener listener) {
+        this.listener = listener;
+    }
+
+    public void add(WriteModel<Document> model) {
+        addAll(Collections.singletonList(model));
+    }
+
+    public void addAll(List<? extends WriteModel<Document>> models) {
+        if (models.isEmpty()) {
+            return;
+        }
+        List<WriteModel<Document>> batch = null;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                oldestPendingMillis = System.currentTimeMillis();
+            }
+            pending.addAll(models);
+            if (pending.size() >= batchSize) {
+                batch = drain();
+            }
+        }
+        writeOrRequeue(batch);
+    }
+
+    public void flush() {
+        List<WriteModel<Document>> batch;
+        synchronized (this) {
+            batch = drain();
+        }
+        writeOrRequeue(batch);
+    }
+
+    public void close() {
+        if (ageFlusher != null) {
+            ageFlusher.shutdown();
+        }
+        flush();
+    }
+
+    private void flushIfOlderThan(long ageMillis) {
+        List<WriteModel<Document>> batch = null;
+        synchronized (this) {
+            if (!pending.isEmpty() && System.currentTimeMillis() - oldestPendingMillis >= ageMillis) {
+                batch = drain();
+            }
+        }
+        try {
+            writeOrRequeue(batch);
+        } catch (MongoException e) {
+            log.info("Timed flush failed, retrying with the next flush: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the batch, or puts it back in front of the pending models and rethrows, so the callers whose models
+     * were in it see the failure while the models themselves are not lost.
+     */
+    private void writeOrRequeue(List<WriteModel<Document>> batch) {
+        try {
+            write(batch);
+        } catch (MongoException e) {
+            // individual write errors are handled in write, this is the batch as a whole
+            requeue(batch);
+            throw e;
+        }
+    }
+
+    private synchronized void requeue(List<WriteModel<Document>> batch) {
+        Metrics.counter("db.requeued").addAndGet(batch.size());
+        if (pending.isEmpty()) {
+            // retried by the timed flush after maxAgeMillis at the earliest, which spaces out the attempts
+            oldestPendingMillis = System.currentTimeMillis();
+        }
+        batch.addAll(pending);
+        pending = batch;
+    }
+
+    private List<WriteModel<Document>> drain() {
+        if (pending.isEmpty()) {
+            return null;
+        }
+        List<WriteModel<Document>> batch = pending;
+        pending = new ArrayList<WriteModel<Document>>();
+        return batch;
+    }
+
+    private void write(List<WriteModel<Document>> batch) {
+        if (batch == null) {
+            return;
+        }
+
+        BulkWriteResult result;
+        Set<Integer> failedIndexes = Collections.emptySet();
+        long start = System.nanoTime();
+        try {
+            result = collection.bulkWrite(batch, UNORDERED);
+        } catch (MongoBulkWriteException e) {
+            // unordered: everything except the failed models has been applied
+            failedIndexes = new HashSet<Integer>();
+            for (BulkWriteError error : e.getWriteErrors()) {
+                log.info("Bulk write error at " + error.getIndex() + ": " + error.getMessage());
+                failedIndexes.add(error.getIndex());
+            }
+            Metrics.counter("db.writeErrors").addAndGet(e.getWriteErrors().size());
+            result = e.getWriteResult();
+        } finally {
+            Metrics.stage("db.bulkWrite").recordSince(start);
+        }
+        Metrics.counter("db.writes").addAndGet(batch.size());
+        logCounts(batch.size(), result);
+        WriteListener listener = this.listener;
+        if (listener != null) {
+            listener.written(batch, failedIndexes);
+        }
+    }
+
+    private void logCounts(int total, BulkWriteResult result) {
+        if (!result.wasAcknowledged()) {
+            log.info("Counts Total: " + total + "\tunacknowledged");
+            return;
+        }
+        int inserts = result.getInsertedCount() + result.getUpserts().size();
+        log.info("Counts Total: " + total + "\tUpdates: " + result.getMatchedCount() + "\tInserts: " + inserts);
+    }
+}
@@ -0,0 +1,229 @@
+package db;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import org.bson.Document;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import static com.mongodb.client.model.Filters.in;
+import static com.mongodb.client.model.Projections.*;
+import static crawler.appinfo.AppInfo.APP_ID;
+
+/**
+ * Turns a freshly crawled document into an update that only sets the fields that changed since the last write.
+ *
+ * A 64 bit hash of every written field is kept in the app document under fieldHashes. The hashes of the apps in
+ * flight are primed from the id stream, which projects them along with the id; whatever is not primed is read in
+ * one query per batch before the write. Crawl timestamps are always written, everything else only when its hash
+ * differs, so a recrawl of an unchanged app writes little more than its timestamp.
+ */
+public class ChangeDetector {
+    private static final Logger log = Logger.getLogger(ChangeDetector.class.getName());
+
+    public static final String FIELD_HASHES = "fieldHashes";
+
+    // bounds the hashes of apps handed out but never written, failed crawls are forgotten explicitly
+    private static final int MAX_PRIMED = 100000;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final MongoCollection<Document> collection;
+    private final Set<String> alwaysWritten;
+    private final ConcurrentMap<String, Document> knownHashes = new ConcurrentHashMap<String, Document>();
+
+    private final AtomicLong documents = new AtomicLong();
+    private final AtomicLong unchangedDocuments = new AtomicLong();
+    private final AtomicLong changedFields = new AtomicLong();
+    private final AtomicLong unchangedFields = new AtomicLong();
+    private final AtomicBoolean capLogged = new AtomicBoolean();
+
+    public ChangeDetector(MongoCollection<Document> collection, String... alwaysWritten) {
+        this.collection = collection;
+        this.alwaysWritten = new HashSet<String>(Arrays.asList(alwaysWritten));
+        this.alwaysWritten.add(APP_ID);
+    }
+
+    /**
+     * Remembers the field hashes of a document projected with FIELD_HASHES, so its write needs no extra read.
+     */
+    public void prime(Document projected) {
+        String appId = projected.getString(APP_ID);
+        if (appId == null) {
+            return;
+        }
+        if (knownHashes.size() >= MAX_PRIMED) {
+            if (capLogged.compareAndSet(false, true)) {
+                log.info("Change detection holds " + MAX_PRIMED + " primed apps, further writes load their hashes per batch");
+            }
+            return;
+        }
+        Object hashes = projected.get(FIELD_HASHES);
+        knownHashes.put(appId, hashes instanceof Document ? (Document) hashes : new Document());
+    }
+
+    /**
+     * Drops the primed hashes of an app whose crawl failed and that will not be written.
+     */
+    public void forget(String appId) {
+        knownHashes.remove(appId);
+    }
+
+    /**
+     * @return one $set update per document, in the same order
+     */
+    public List<Document> toUpdates(List<Document> documents) {
+        loadMissing(documents);
+
+        List<Document> updates = new ArrayList<Document>(documents.size());
+        for (Document document : documents) {
+            String appId = document.getString(APP_ID);
+            Document known = knownHashes.remove(appId);
+            updates.add(toUpdate(document, known == null ? new Document() : known));
+        }
+        return updates;
+    }
+
+    public void logStats() {
+        if (documents.get() > 0) {
+            log.info("Change detection: " + unchangedDocuments.get() + " of " + documents.get() + " documents unchanged, "
+                    + changedFields.get() + " fields written, " + unchangedFields.get() + " skipped");
+        }
+    }
+
+    private Document toUpdate(Document document, Document known) {
+        Document set = new Document();
+        boolean changed = false;
+
+        for (Map.Entry<String, Object> field : document.entrySet()) {
+            String name = field.getKey();
+            if (alwaysWritten.contains(name)) {
+                set.append(name, field.getValue());
+                continue;
+            }
+
+            long hash = hash(field.getValue());
+            Object previous = known.get(name);
+            if (previous instanceof Long && (Long) previous == hash) {
+                unchangedFields.incrementAndGet();
+                continue;
+            }
+            set.append(name, field.getValue());
+            set.append(FIELD_HASHES + "." + name, hash);
+            changedFields.incrementAndGet();
+            changed = true;
+        }
+
+        documents.incrementAndGet();
+        if (!changed) {
+            unchangedDocuments.incrementAndGet();
+        }
+        return new Document("$set", set);
+    }
+
+    /**
+     * Reads the field hashes of all documents that were not primed, in one query.
+     */
+    private void loadMissing(List<Document> documents) {
+        List<String> missing = new ArrayList<String>();
+        for (Document document : documents) {
+            String appId = document.getString(APP_ID);
+            if (appId != null && !knownHashes.containsKey(appId)) {
+                missing.add(appId);
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        for (String appId : missing) {
+            // unknown apps have no hashes, everything is written
+            knownHashes.put(appId, new Document());
+        }
+        try (MongoCursor<Document> cursor = collection.find(in(APP_ID, missing))
+                .projection(fields(include(APP_ID, FIELD_HASHES), excludeId()))
+                .iterator()) {
+            while (cursor.hasNext()) {
+                Document projected = cursor.next();
+                Object hashes = projected.get(FIELD_HASHES);
+                if (hashes instanceof Document) {
+                    knownHashes.put(projected.getString(APP_ID), (Document) hashes);
+                }
+            }
+        }
+    }
+
+    /**
+     * FNV-1a over a canonical form of the value: map keys are sorted and sets are hashed independently of their
+     * iteration order, so the same content always has the same hash.
+     */
+    static long hash(Object value) {
+        return mix(FNV_OFFSET, value);
+    }
+
+    private static long mix(long hash, Object value) {
+        if (value == null) {
+            return mix(hash, 'N');
+        }
+        if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            List<String> keys = new ArrayList<String>(map.size());
+            for (Object key : map.keySet()) {
+                keys.add(String.valueOf(key));
+            }
+            Collections.sort(keys);
+            hash = mix(hash, 'M');
+            for (String key : keys) {
+                hash = mix(mix(hash, key), map.get(key));
+            }
+            return hash;
+        }
+        if (value instanceof Set) {
+            long[] elementHashes = new long[((Set<?>) value).size()];
+            int i = 0;
+            for (Object element : (Set<?>) value) {
+                elementHashes[i++] = hash(element);
+            }
+            Arrays.sort(elementHashes);
+            hash = mix(hash, 'S');
+            for (long elementHash : elementHashes) {
+                hash = mix(hash, elementHash);
+            }
+            return hash;
+        }
+        if (value instanceof Collection) {
+            hash = mix(hash, 'L');
+            for (Object element : (Collection<?>) value) {
+                hash = mix(hash, element);
+            }
+            return hash;
+        }
+        // the type is part of the hash, 1 and "1" differ
+        return mix(mix(hash, value.getClass().getSimpleName()), String.valueOf(value));
+    }
+
+    private static long mix(long hash, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            hash = mix(hash, text.charAt(i));
+        }
+        return mix(hash, '\0');
+    }
+
+    private static long mix(long hash, char c) {
+        hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+        return (hash ^ (c >>> 8)) * FNV_PRIME;
+    }
+
+    private static long mix(long hash, long value) {
+        for (int shift = 0; shift < 64; shift += 8) {
+            hash = (hash ^ ((value >>> shift) & 0xff)) * FNV_PRIME;
+        }
+        return hash;
+    }
+}
@@ -1,104 +1,407 @@
 package db;
 
 import com.mongodb.BasicDBObject;
+import com.mongodb.client.model.BulkWriteOptions;
 import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.UpdateManyModel;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
 import crawler.appbrain.AppBrainInfo;
 import crawler.appinfo.AppInfo;
 import com.mongodb.MongoClient;
-import com.mongodb.client.FindIterable;
 import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Sorts;
 import com.mongodb.client.MongoDatabase;
 import org.apache.maven.shared.utils.StringUtils;
 import org.bson.Document;
+import org.bson.conversions.Bson;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
 import java.util.logging.Logger;
 
-import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Filters.*;
 import static com.mongodb.client.model.Projections.*;
-import static crawler.appbrain.AppBrainInfo.*;
 import static crawler.appinfo.AppInfo.*;
 
 public class DBWriter {
 
     private static final Logger log = Logger.getLogger(DBWriter.class.getName());
 
+    private static final UpdateOptions UPSERT = new UpdateOptions().upsert(true);
+    private static final UpdateOptions NO_UPSERT = new UpdateOptions().upsert(false);
+
+    private static final String CLUSTER_COLLECTION = "clusters";
+    public static final String CLUSTER_URL = "url";
+    public static final String CLUSTER_LAST_CRAWLED = "lastCrawled";
+    public static final String CLUSTER_SIZE = "size";
+
+    private static final String CATEGORY_COLLECTION = "categories";
+    public static final String CATEGORY_URL = "url";
+    public static final String CATEGORY_LAST_CRAWLED = "lastCrawled";
+
     private MongoDatabase db;
     private String databaseName;
-    private MongoCollection mongoCollection;
+    private MongoCollection<Document> mongoCollection;
+    private BulkWriteBuffer bulkWriteBuffer;
+    private MongoCollection<Document> clusterCollection;
+    private BulkWriteBuffer clusterWriteBuffer;
+    private MongoCollection<Document> categoryCollection;
+    private ChangeDetector changeDetector;
+    private SeenSet seenSet;
+    // id inserts that are queued but not yet written, they only count as seen once the write succeeded
+    private final Map<WriteModel<Document>, String> pendingIdInserts =
+            Collections.synchronizedMap(new IdentityHashMap<WriteModel<Document>, String>());
+    private FieldDictionary dictionary;
 
     public DBWriter(String host, int port, String databaseName, String collectionName) {
+        this(host, port, databaseName, collectionName, 1, 0);
+    }
+
+    /**
+     * @param bulkSize     number of upserts grouped into one unordered bulk write, 1 writes every record immediately
+     * @param maxAgeMillis upper bound for how long a record may wait in an incomplete batch
+     */
+    public DBWriter(String host, int port, String databaseName, String collectionName, int bulkSize, long maxAgeMillis) {
         this.databaseName = databaseName;
 
         MongoClient mongoClient = new MongoClient(host, port);
         db = mongoClient.getDatabase(this.databaseName);
         mongoCollection = db.getCollection(collectionName);
         mongoCollection.createIndex(new BasicDBObject(APP_ID, 1), new IndexOptions().unique(true));
+        createNumericIndexes();
+        bulkWriteBuffer = new BulkWriteBuffer(mongoCollection, bulkSize, maxAgeMillis);
+
+        clusterCollection = db.getCollection(CLUSTER_COLLECTION);
+        clusterCollection.createIndex(new BasicDBObject(CLUSTER_URL, 1), new IndexOptions().unique(true));
+        clusterWriteBuffer = new BulkWriteBuffer(clusterCollection, bulkSize, maxAgeMillis);
+
+        categoryCollection = db.getCollection(CATEGORY_COLLECTION);
+        categoryCollection.createIndex(new BasicDBObject(CATEGORY_URL, 1), new IndexOptions().unique(true));
     };
 
-    public void writeAppInfosToDb(List<AppInfo> appInfos) {
-        int updates = 0;
-        int inserts = 0;
+    /**
+     * Range queries on the parsed numeric fields, e.g. apps updated this week with more than a million installs,
+     * are index scans. Sparse, as apps that were only discovered have none of these fields. A field whose text could
+     * not be parsed is written as null, which the range queries do not match.
+     */
+    private void createNumericIndexes() {
+        IndexOptions sparse = new IndexOptions().sparse(true);
+        mongoCollection.createIndex(Indexes.ascending(LAST_UPDATED_MILLIS, INSTALLS_MIN), sparse);
+        mongoCollection.createIndex(Indexes.ascending(INSTALLS_MIN), sparse);
+        mongoCollection.createIndex(Indexes.ascending(SIZE_BYTES), sparse);
+        mongoCollection.createIndex(Indexes.ascending(AppBrainInfo.RANK), sparse);
+        mongoCollection.createIndex(Indexes.ascending(AppBrainInfo.BINARY_SIZE_BYTES), sparse);
+        mongoCollection.createIndex(Indexes.ascending(AppBrainInfo.AGE_MILLIS), sparse);
+    }
 
-        for (AppInfo appInfo : appInfos) {
-            String appInfoId = appInfo.getId();
-            Document appInfoDocument = appInfo.convertToDocument();
-            FindIterable<Document> iterable = mongoCollection.find(new Document(APP_ID, appInfoId));
-            Document first = iterable.first();
-            if (first != null) {
-                mongoCollection.updateOne(eq(APP_ID, appInfoId), new Document("$set", appInfoDocument));
-                updates += 1;
-            } else {
-                mongoCollection.insertOne(appInfoDocument);
-                inserts += 1;
+    /**
+     * With change detection enabled, crawled documents only set the fields whose content changed since the
+     * last write, see ChangeDetector.
+     */
+    public void enableChangeDetection() {
+        changeDetector = new ChangeDetector(mongoCollection, LAST_APP_INFO_CRAWL_TIMESTAMP, AppBrainInfo.LAST_APP_BRAIN_CRAWL_TIMESTAMP);
+    }
+
+    /**
+     * With a seen set, app ids that are known already are filtered in-process and never reach the database.
+     *
+     * @param snapshot file the set is loaded from and saved to on close
+     */
+    public void enableSeenSet(File snapshot) {
+        seenSet = SeenSet.open(snapshot, mongoCollection);
+        bulkWriteBuffer.setWriteListener(new BulkWriteBuffer.WriteListener() {
+            @Override
+            public void written(List<WriteModel<Document>> batch, Set<Integer> failedIndexes) {
+                for (int i = 0; i < batch.size(); i++) {
+                    String id = pendingIdInserts.remove(batch.get(i));
+                    if (id != null && !failedIndexes.contains(i)) {
+                        seenSet.add(id);
+                    }
+                }
             }
+        });
+    }
+
+    /**
+     * With dictionary encoding enabled, the low-cardinality text fields of app infos are stored as integer codes,
+     * see FieldDictionary. Documents read through decode() get their text back.
+     */
+    public void enableDictionaryEncoding() {
+        dictionary = openDictionary(db);
+    }
+
+    /**
+     * The dictionary of the encoded app info fields, shared with AppReader.
+     */
+    static FieldDictionary openDictionary(MongoDatabase db) {
+        return new FieldDictionary(db.getCollection(FieldDictionary.COLLECTION),
+                CATEGORY, CONTENT_RATING, INSTALLS, REQUIRED_ANDROID_VERSION, BADGE, OFFERS_IN_APP_PURCHASES);
+    }
+
+    /**
+     * Turns dictionary codes in a document read from the app collection back into text, in place.
+     */
+    public Document decode(Document document) {
+        return dictionary == null ? document : dictionary.decode(document);
+    }
+
+    /**
+     * Hands the field hashes of a document projected with fieldHashesProjection() to the change detection.
+     */
+    public void primeFieldHashes(Document projected) {
+        if (changeDetector != null) {
+            changeDetector.prime(projected);
         }
-        log.info("Counts Total: " + appInfos.size() + "\tUpdates: " + updates + "\tInserts: " + inserts);
     }
 
-    public void writeAppIdsToDb(Set<String> ids) {
-        int inserts = 0;
+    /**
+     * Tells the change detection that a primed app will not be written, e.g. because its crawl failed.
+     */
+    public void forgetFieldHashes(String appId) {
+        if (changeDetector != null) {
+            changeDetector.forget(appId);
+        }
+    }
+
+    /**
+     * @return the fields an id stream has to project so its documents can prime the change detection
+     */
+    public List<String> fieldHashesProjection() {
+        return changeDetector == null ? Collections.<String>emptyList() : Collections.singletonList(ChangeDetector.FIELD_HASHES);
+    }
+
+    public void writeAppInfosToDb(List<AppInfo> appInfos) {
+        List<Document> appInfoDocuments = new ArrayList<Document>(appInfos.size());
+        for (AppInfo appInfo : appInfos) {
+            appInfoDocuments.add(appInfo.convertToDocument());
+        }
+        writeAppInfoDocuments(appInfoDocuments);
+    }
+
+    public void writeAppInfoDocuments(List<Document> appInfoDocuments) {
+        List<Document> updates = toUpdates(appInfoDocuments);
+        List<UpdateOneModel<Document>> upserts = new ArrayList<UpdateOneModel<Document>>(appInfoDocuments.size());
+        for (int i = 0; i < appInfoDocuments.size(); i++) {
+            upserts.add(new UpdateOneModel<Document>(eq(APP_ID, appInfoDocuments.get(i).getString(APP_ID)), updates.get(i), UPSERT));
+        }
+        bulkWriteBuffer.addAll(upserts);
+    }
 
+    public void writeAppIdsToDb(Set<String> ids) {
+        List<UpdateOneModel<Document>> upserts = new ArrayList<UpdateOneModel<Document>>(ids.size());
         for (String id : ids) {
-            if (StringUtils.isEmpty(id)) {
+            if (StringUtils.isEmpty(id) || (seenSet != null && seenSet.contains(id))) {
                 continue;
             }
-            Document appId = new Document().append(APP_ID, id);
-            FindIterable<Document> iterable = mongoCollection.find(new Document(APP_ID, id));
-            Document first = iterable.first();
-            if (first == null) {
-                mongoCollection.insertOne(appId);
-                inserts += 1;
+            // only inserts unknown ids, existing documents are matched but left untouched
+            UpdateOneModel<Document> upsert = new UpdateOneModel<Document>(eq(APP_ID, id), new Document("$setOnInsert", new Document(APP_ID, id)), UPSERT);
+            if (seenSet != null) {
+                pendingIdInserts.put(upsert, id);
+            }
+            upserts.add(upsert);
+        }
+        bulkWriteBuffer.addAll(upserts);
+    }
+
+    private List<Document> toUpdates(List<Document> documents) {
+        if (dictionary != null) {
+            // before change detection, so the hashes are taken over what is stored
+            for (Document document : documents) {
+                dictionary.encode(document);
             }
         }
-        log.info("Counts Total: " + ids.size() + "\tInserts: " + inserts);
+        if (changeDetector != null) {
+            return changeDetector.toUpdates(documents);
+        }
+        List<Document> updates = new ArrayList<Document>(documents.size());
+        for (Document document : documents) {
+            updates.add(new Document("$set", document));
+        }
+        return updates;
     }
 
-    public FindIterable<Document> readAppIds(String toInclude) {
-        return mongoCollection.find().projection(fields(include(APP_ID, toInclude)));
+    /**
+     * Streams the ids of apps that were never crawled, or crawled before staleBefore, with the filter evaluated
+     * on the server. The cursor is kept open for the whole crawl, so it must not time out between batches.
+     *
+     * @param staleBefore 0 selects only apps that were never crawled
+     */
+    public MongoCursor<Document> streamAppIdsToCrawl(String timestampField, long staleBefore, int batchSize) {
+        return streamAppIdsToCrawl(timestampField, staleBefore, batchSize, null);
     }
 
-    public void writeAppBrainInfos(List<AppBrainInfo> appBrainInfos) {
-        int updates = 0;
+    /**
+     * Same as above, with a lease only the ids claimed by this process are streamed.
+     */
+    public MongoCursor<Document> streamAppIdsToCrawl(String timestampField, long staleBefore, int batchSize, WorkLease lease) {
+        mongoCollection.createIndex(Indexes.ascending(timestampField, APP_ID));
 
+        Bson filter = exists(timestampField, false);
+        if (staleBefore > 0) {
+            filter = or(filter, lt(timestampField, staleBefore));
+        }
+        Bson projection = fields(include(APP_ID), include(fieldHashesProjection()), excludeId());
+        if (lease != null) {
+            return lease.claim(filter, null, projection, batchSize);
+        }
+        return mongoCollection.find(filter)
+                .projection(projection)
+                .batchSize(batchSize)
+                .noCursorTimeout(true)
+                .iterator();
+    }
+
+    /**
+     * Leases on app documents, one set per crawler name, see WorkLease.
+     */
+    public WorkLease openAppLease(String crawlerName, String owner, long leaseMillis) {
+        return new WorkLease(mongoCollection, APP_ID, crawlerName, owner, leaseMillis);
+    }
+
+    public void writeAppBrainInfos(List<AppBrainInfo> appBrainInfos) {
+        List<Document> appBrainDocuments = new ArrayList<Document>(appBrainInfos.size());
         for (AppBrainInfo appBrainInfo : appBrainInfos) {
-            String appId = appBrainInfo.getAppId();
-            FindIterable<Document> iterable = mongoCollection.find(new Document(APP_ID, appId));
-            Document first = iterable.first();
-            if (first != null) {
-                first.put(LAST_APP_BRAIN_CRAWL_TIMESTAMP, appBrainInfo.getLastAppBrainCrawlTimestamp());
-                first.put(RANKING, appBrainInfo.getRanking());
-                first.put(BINARY_SIZE, appBrainInfo.getSize());
-                first.put(LIBRARIES, appBrainInfo.getLibraries());
-                first.put(AGE, appBrainInfo.getAge());
-                first.put(COMMENTS_TAG, appBrainInfo.getCommentsTagDocument());
-                first.put(RESOURCE_PERMISSIONS, appBrainInfo.getResourcePermissionsDocument());
-
-                mongoCollection.updateOne(eq(APP_ID, appId), new Document("$set", first));
-                updates += 1;
+            appBrainDocuments.add(appBrainInfo.convertToDocument());
+        }
+        writeAppBrainDocuments(appBrainDocuments);
+    }
+
+    public void writeAppBrainDocuments(List<Document> appBrainDocuments) {
+        List<Document> updates = toUpdates(appBrainDocuments);
+        List<UpdateOneModel<Document>> models = new ArrayList<UpdateOneModel<Document>>(appBrainDocuments.size());
+        for (int i = 0; i < appBrainDocuments.size(); i++) {
+            // AppBrain info is only attached to apps that are already known
+            models.add(new UpdateOneModel<Document>(eq(APP_ID, appBrainDocuments.get(i).getString(APP_ID)), updates.get(i), NO_UPSERT));
+        }
+        bulkWriteBuffer.addAll(models);
+    }
+
+    /**
+     * Streams apps whose next due time has passed, or that have none yet, in due time order.
+     */
+    public MongoCursor<Document> streamDueAppIds(String nextDueField, long now, Bson projection, int batchSize) {
+        return streamDueAppIds(nextDueField, now, projection, batchSize, null);
+    }
+
+    /**
+     * Same as above, with a lease only the ids claimed by this process are streamed, in due time order per batch.
+     */
+    public MongoCursor<Document> streamDueAppIds(String nextDueField, long now, Bson projection, int batchSize, WorkLease lease) {
+        mongoCollection.createIndex(Indexes.ascending(nextDueField, APP_ID));
+
+        // not greater than now also matches documents without a due time, those sort first
+        Bson filter = not(gt(nextDueField, now));
+        Bson sort = Sorts.ascending(nextDueField);
+        if (lease != null) {
+            return lease.claim(filter, sort, projection, batchSize);
+        }
+        return mongoCollection.find(filter)
+                .sort(sort)
+                .projection(projection)
+                .batchSize(batchSize)
+                .noCursorTimeout(true)
+                .iterator();
+    }
+
+    /**
+     * Adds similar apps cluster pages to the frontier, urls that are known already are left untouched.
+     */
+    public void recordClusters(Set<String> clusterUrls) {
+        List<UpdateOneModel<Document>> upserts = new ArrayList<UpdateOneModel<Document>>(clusterUrls.size());
+        for (String clusterUrl : clusterUrls) {
+            if (StringUtils.isEmpty(clusterUrl)) {
+                continue;
+            }
+            upserts.add(new UpdateOneModel<Document>(eq(CLUSTER_URL, clusterUrl), new Document("$setOnInsert", new Document(CLUSTER_URL, clusterUrl)), UPSERT));
+        }
+        clusterWriteBuffer.addAll(upserts);
+    }
+
+    /**
+     * Streams the urls of cluster pages that were never crawled or last crawled before staleBefore.
+     */
+    public MongoCursor<Document> streamClustersToCrawl(long staleBefore, int batchSize) {
+        clusterCollection.createIndex(Indexes.ascending(CLUSTER_LAST_CRAWLED, CLUSTER_URL));
+        mongoCollection.createIndex(Indexes.ascending(SIMILAR_APPS_URL));
+
+        return clusterCollection.find(or(exists(CLUSTER_LAST_CRAWLED, false), lt(CLUSTER_LAST_CRAWLED, staleBefore)))
+                .projection(fields(include(CLUSTER_URL), excludeId()))
+                .batchSize(batchSize)
+                .noCursorTimeout(true)
+                .iterator();
+    }
+
+    /**
+     * Sets the similar apps of every app that links to the cluster and marks the cluster as crawled.
+     */
+    public void writeCluster(String clusterUrl, Set<String> similarApps) {
+        bulkWriteBuffer.add(new UpdateManyModel<Document>(eq(SIMILAR_APPS_URL, clusterUrl),
+                new Document("$set", new Document(SIMILAR_APPS, new ArrayList<String>(similarApps))), NO_UPSERT));
+        clusterWriteBuffer.add(new UpdateOneModel<Document>(eq(CLUSTER_URL, clusterUrl),
+                new Document("$set", new Document(CLUSTER_LAST_CRAWLED, System.currentTimeMillis()).append(CLUSTER_SIZE, similarApps.size())), NO_UPSERT));
+    }
+
+    /**
+     * Adds category pages to the category collection, so several app id crawlers can claim them, known urls are
+     * left untouched.
+     */
+    public void recordCategories(Collection<String> categoryUrls) {
+        List<UpdateOneModel<Document>> upserts = new ArrayList<UpdateOneModel<Document>>(categoryUrls.size());
+        for (String categoryUrl : categoryUrls) {
+            upserts.add(new UpdateOneModel<Document>(eq(CATEGORY_URL, categoryUrl), new Document("$setOnInsert", new Document(CATEGORY_URL, categoryUrl)), UPSERT));
+        }
+        if (!upserts.isEmpty()) {
+            // written right away, the claims that follow have to see them
+            categoryCollection.bulkWrite(upserts, new BulkWriteOptions().ordered(false));
+        }
+    }
+
+    public WorkLease openCategoryLease(String owner, long leaseMillis) {
+        return new WorkLease(categoryCollection, CATEGORY_URL, "appids", owner, leaseMillis);
+    }
+
+    /**
+     * Streams the category pages that were never crawled or last crawled before staleBefore and claims them.
+     */
+    public MongoCursor<Document> claimCategoriesToCrawl(WorkLease lease, long staleBefore, int batchSize) {
+        return lease.claim(or(exists(CATEGORY_LAST_CRAWLED, false), lt(CATEGORY_LAST_CRAWLED, staleBefore)), null,
+                fields(include(CATEGORY_URL), excludeId()), batchSize);
+    }
+
+    public void markCategoryCrawled(String categoryUrl) {
+        categoryCollection.updateOne(eq(CATEGORY_URL, categoryUrl), new Document("$set", new Document(CATEGORY_LAST_CRAWLED, System.currentTimeMillis())));
+    }
+
+    /**
+     * Applies an update to an existing app document through the bulk buffer.
+     */
+    public void updateApp(String appId, Bson update) {
+        bulkWriteBuffer.add(new UpdateOneModel<Document>(eq(APP_ID, appId), update, NO_UPSERT));
+    }
+
+    public void flush() {
+        bulkWriteBuffer.flush();
+        clusterWriteBuffer.flush();
+    }
+
+    public void close() {
+        bulkWriteBuffer.close();
+        clusterWriteBuffer.close();
+        if (seenSet != null) {
+            try {
+                seenSet.save();
+            } catch (IOException e) {
+                log.info("Cannot save the seen set, it is reloaded from the db next time: " + e.getMessage());
             }
         }
-        log.info("Counts Total: " + appBrainInfos.size() + "\tUpdates: " + updates);
+        if (changeDetector != null) {
+            changeDetector.logStats();
+        }
     }
 
 }
@@ -0,0 +1,169 @@
+package db;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import org.bson.Document;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+import static com.mongodb.client.model.Filters.eq;
+import static com.mongodb.client.model.Projections.*;
+
+/**
+ * Maps the values of low-cardinality text fields to small integer codes, e.g. the category "Productivity" to 3,
+ * so a document stores the code instead of repeating the text.
+ *
+ * The mapping lives in its own collection, one entry per field and value, and is cached in memory completely.
+ * A new value gets the next free code of its field; two processes racing for a value or a code are sorted out by
+ * the unique indexes, the loser reloads the field and retries. Documents written before encoding was enabled keep
+ * their text, decode passes it through unchanged. A code missing from the dictionary is kept as it is, with a
+ * warning, rather than losing the value.
+ */
+public class FieldDictionary {
+    private static final Logger log = Logger.getLogger(FieldDictionary.class.getName());
+
+    public static final String COLLECTION = "dictionary";
+    public static final String FIELD = "field";
+    public static final String VALUE = "value";
+    public static final String CODE = "code";
+
+    // a field with more distinct values than this is not low-cardinality, further values stay text
+    private static final int MAX_CODES_PER_FIELD = 10000;
+    private static final int MAX_ATTEMPTS = 10;
+
+    private final MongoCollection<Document> collection;
+    private final Set<String> fields;
+    private final ConcurrentMap<String, ConcurrentMap<String, Integer>> codes = new ConcurrentHashMap<String, ConcurrentMap<String, Integer>>();
+    private final ConcurrentMap<String, ConcurrentMap<Integer, String>> values = new ConcurrentHashMap<String, ConcurrentMap<Integer, String>>();
+    // field and code of every unknown code warned about, so each one is logged once
+    private final Set<String> unknownCodes = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    public FieldDictionary(MongoCollection<Document> collection, String... fields) {
+        this.collection = collection;
+        this.fields = new LinkedHashSet<String>(Arrays.asList(fields));
+        for (String field : this.fields) {
+            codes.put(field, new ConcurrentHashMap<String, Integer>());
+            values.put(field, new ConcurrentHashMap<Integer, String>());
+        }
+
+        collection.createIndex(Indexes.ascending(FIELD, VALUE), new IndexOptions().unique(true));
+        collection.createIndex(Indexes.ascending(FIELD, CODE), new IndexOptions().unique(true));
+        for (String field : this.fields) {
+            reload(field);
+        }
+        log.info("Loaded dictionary codes of " + this.fields);
+    }
+
+    /**
+     * Replaces the text of every encoded field of the document by its code, in place.
+     */
+    public Document encode(Document document) {
+        for (String field : fields) {
+            Object value = document.get(field);
+            if (value instanceof String) {
+                Integer code = code(field, (String) value);
+                if (code != null) {
+                    document.put(field, code);
+                }
+            }
+        }
+        return document;
+    }
+
+    /**
+     * Replaces the code of every encoded field of the document by its text, in place. Text and codes missing from
+     * the dictionary are left as they are.
+     */
+    public Document decode(Document document) {
+        for (String field : fields) {
+            Object value = document.get(field);
+            if (value instanceof Integer) {
+                String text = value(field, (Integer) value);
+                if (text != null) {
+                    document.put(field, text);
+                } else if (unknownCodes.add(field + ":" + value)) {
+                    log.warning("Unknown dictionary code " + value + " for " + field + ", keeping the code");
+                }
+            }
+        }
+        return document;
+    }
+
+    /**
+     * @return the code of the value, a new one if it has none yet, null if the field has run out of codes
+     */
+    public Integer code(String field, String value) {
+        Integer code = codes.get(field).get(value);
+        if (code != null) {
+            return code;
+        }
+        return assign(field, value);
+    }
+
+    /**
+     * @return the text of the code, null if the dictionary has no such code even after a reload
+     */
+    public String value(String field, int code) {
+        String value = values.get(field).get(code);
+        if (value == null) {
+            // assigned by another process after our load
+            reload(field);
+            value = values.get(field).get(code);
+        }
+        return value;
+    }
+
+    private synchronized Integer assign(String field, String value) {
+        ConcurrentMap<String, Integer> fieldCodes = codes.get(field);
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            Integer code = fieldCodes.get(value);
+            if (code != null) {
+                return code;
+            }
+            if (fieldCodes.size() >= MAX_CODES_PER_FIELD) {
+                return null;
+            }
+
+            int next = 0;
+            for (Integer existing : values.get(field).keySet()) {
+                next = Math.max(next, existing + 1);
+            }
+            try {
+                collection.insertOne(new Document(FIELD, field).append(VALUE, value).append(CODE, next));
+                put(field, value, next);
+                return next;
+            } catch (MongoWriteException e) {
+                if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+                    throw e;
+                }
+                // another process took the value or the code first
+                reload(field);
+            }
+        }
+        log.info("Giving up on a code for " + field + " value " + value + ", storing the text");
+        return null;
+    }
+
+    private void reload(String field) {
+        try (MongoCursor<Document> cursor = collection.find(eq(FIELD, field))
+                .projection(fields(include(VALUE, CODE), excludeId()))
+                .iterator()) {
+            while (cursor.hasNext()) {
+                Document entry = cursor.next();
+                put(field, entry.getString(VALUE), entry.getInteger(CODE));
+            }
+        }
+    }
+
+    private void put(String field, String value, int code) {
+        codes.get(field).put(value, code);
+        values.get(field).put(code, value);
+    }
+}
@@ -0,0 +1,222 @@
+package db;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.logging.Logger;
+
+import static com.mongodb.client.model.Filters.gte;
+import static com.mongodb.client.model.Projections.*;
+import static crawler.appinfo.AppInfo.APP_ID;
+
+/**
+ * In-process set of all known app ids, kept as 64 bit fingerprints in an open addressing table, so checking an id
+ * costs a hash and a few array reads instead of a database round-trip.
+ *
+ * The table is saved to a snapshot file on close and memory-mapped back on the next start. Ids inserted by other
+ * processes since the snapshot was taken are caught up from the collection by their ObjectId creation time. Without
+ * a snapshot the set is loaded from the collection once.
+ *
+ * Two ids share a fingerprint with a chance of about n^2 / 2^65, for ten million ids one in a few hundred
+ * thousand runs. Such an id is taken as known and not inserted; any later sighting of it is dropped the same way,
+ * which is acceptable for discovery.
+ */
+public class SeenSet {
+    private static final Logger log = Logger.getLogger(SeenSet.class.getName());
+
+    private static final long MAGIC = 0x5345454e53455431L;
+    // magic, caught up since, capacity, size
+    private static final int HEADER_BYTES = 8 + 8 + 4 + 4;
+    private static final int INITIAL_CAPACITY = 1 << 20;
+    private static final double MAX_LOAD = 0.5;
+    // ObjectIds are generated on the clients, allow for clock skew between them
+    private static final long CATCH_UP_MARGIN_MILLIS = 600000;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final File snapshot;
+    // everything the collection held before this time is in the set, other processes may have added ids since
+    private long caughtUpSince;
+
+    // 0 marks a free slot
+    private long[] table;
+    private int size;
+
+    private long hits;
+    private long misses;
+
+    private SeenSet(File snapshot, long[] table, int size) {
+        this.snapshot = snapshot;
+        this.table = table;
+        this.size = size;
+    }
+
+    /**
+     * Maps the snapshot if there is one and catches up with the collection, otherwise loads all ids from it.
+     */
+    public static SeenSet open(File snapshot, MongoCollection<Document> collection) {
+        long started = System.currentTimeMillis();
+        SeenSet seenSet = null;
+        long createdAt = 0;
+
+        if (snapshot.isFile()) {
+            try {
+                long[] header = new long[2];
+                seenSet = readSnapshot(snapshot, header);
+                createdAt = header[0];
+            } catch (IOException e) {
+                log.info("Ignoring unreadable seen set snapshot " + snapshot + ": " + e.getMessage());
+            }
+        }
+        if (seenSet == null) {
+            seenSet = new SeenSet(snapshot, new long[INITIAL_CAPACITY], 0);
+        }
+
+        seenSet.caughtUpSince = started;
+        int loaded = seenSet.size;
+        try (MongoCursor<Document> cursor = collection.find(createdAt > 0
+                ? gte("_id", new ObjectId(new Date(createdAt - CATCH_UP_MARGIN_MILLIS)))
+                : new Document())
+                .projection(fields(include(APP_ID), excludeId()))
+                .batchSize(10000)
+                .iterator()) {
+            while (cursor.hasNext()) {
+                String appId = cursor.next().getString(APP_ID);
+                if (appId != null) {
+                    seenSet.insert(fingerprint(appId));
+                }
+            }
+        }
+
+        log.info("Seen set holds " + seenSet.size + " ids, " + loaded + " from the snapshot, loaded in "
+                + (System.currentTimeMillis() - started) + " ms");
+        return seenSet;
+    }
+
+    /**
+     * Marks an id as seen, once it is stored in the collection.
+     *
+     * @return true if the id was not seen before
+     */
+    public synchronized boolean add(String appId) {
+        return insert(fingerprint(appId));
+    }
+
+    /**
+     * @return whether the id is known, counted in the hit and miss statistics
+     */
+    public synchronized boolean contains(String appId) {
+        long key = fingerprint(appId);
+        int mask = table.length - 1;
+        for (int slot = slot(key, mask); table[slot] != 0; slot = (slot + 1) & mask) {
+            if (table[slot] == key) {
+                hits++;
+                return true;
+            }
+        }
+        misses++;
+        return false;
+    }
+
+    /**
+     * Writes the table to the snapshot file, replacing the previous one atomically.
+     */
+    public synchronized void save() throws IOException {
+        File tmp = new File(snapshot.getPath() + ".tmp");
+        long bytes = HEADER_BYTES + (long) table.length * 8;
+
+        try (RandomAccessFile file = new RandomAccessFile(tmp, "rw")) {
+            file.setLength(bytes);
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+            buffer.putLong(MAGIC).putLong(caughtUpSince).putInt(table.length).putInt(size);
+            buffer.asLongBuffer().put(table);
+            buffer.force();
+        }
+        Files.move(tmp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        log.info("Saved seen set with " + size + " ids to " + snapshot + ", " + hits + " known and " + misses + " new ids checked");
+    }
+
+    private static SeenSet readSnapshot(File snapshot, long[] header) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(snapshot, "r")) {
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            if (buffer.capacity() < HEADER_BYTES || buffer.getLong() != MAGIC) {
+                throw new IOException("Not a seen set snapshot");
+            }
+            header[0] = buffer.getLong();
+            int capacity = buffer.getInt();
+            int size = buffer.getInt();
+            if (Integer.bitCount(capacity) != 1 || buffer.remaining() < (long) capacity * 8) {
+                throw new IOException("Truncated seen set snapshot");
+            }
+
+            long[] table = new long[capacity];
+            LongBuffer longs = buffer.asLongBuffer();
+            longs.get(table);
+            return new SeenSet(snapshot, table, size);
+        }
+    }
+
+    private boolean insert(long key) {
+        if (size + 1 > table.length * MAX_LOAD) {
+            grow();
+        }
+        int mask = table.length - 1;
+        int slot = slot(key, mask);
+        while (table[slot] != 0) {
+            if (table[slot] == key) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = key;
+        size++;
+        return true;
+    }
+
+    private void grow() {
+        long[] old = table;
+        table = new long[old.length * 2];
+        int mask = table.length - 1;
+        for (long key : old) {
+            if (key != 0) {
+                int slot = slot(key, mask);
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = key;
+            }
+        }
+    }
+
+    private static int slot(long key, int mask) {
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+
+    /**
+     * FNV-1a of the UTF-8 bytes with a final avalanche, never 0.
+     */
+    static long fingerprint(String appId) {
+        long hash = FNV_OFFSET;
+        for (byte b : appId.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash == 0 ? 1 : hash;
+    }
+}
@@ -0,0 +1,257 @@
+package db;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import utils.NamedThreadFactory;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import static com.mongodb.client.model.Filters.*;
+import static com.mongodb.client.model.Projections.*;
+import static com.mongodb.client.model.Updates.combine;
+import static com.mongodb.client.model.Updates.set;
+import static com.mongodb.client.model.Updates.unset;
+
+/**
+ * Lets several crawler processes share the work on one collection without crawling the same item twice.
+ *
+ * Items are claimed in batches: the ids of a batch of due, unleased items are read, then one updateMany sets
+ * lease.[name] to this owner, an expiry and a claim token on those that are still due and unleased, which is atomic
+ * per document. Whatever carries the token afterwards belongs to this process; items taken by another process in
+ * between are simply not part of the batch.
+ *
+ * Leases of items in progress are renewed in the background. Once an item is done its lease is no longer renewed
+ * and runs out, by then the crawled item is no longer due. Leases of a crashed process run out the same way and
+ * its items are claimed again by the others.
+ *
+ * A failed item stays leased for a retry delay instead, so neither this nor another process claims it again right
+ * away and a crawl over the due items ends even while some of them keep failing.
+ */
+public class WorkLease {
+    private static final Logger log = Logger.getLogger(WorkLease.class.getName());
+
+    public static final String LEASE = "lease";
+    private static final String OWNER = "owner";
+    private static final String EXPIRES = "expires";
+    private static final String CLAIM = "claim";
+
+    private final MongoCollection<Document> collection;
+    private final String keyField;
+    private final String leaseField;
+    private final String prefix;
+    private final String owner;
+    private final long leaseMillis;
+
+    private final Set<String> held = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicLong claims = new AtomicLong();
+    private final AtomicLong heldBack = new AtomicLong();
+    private final ScheduledExecutorService renewer;
+
+    private long claimed;
+    private long lost;
+
+    /**
+     * @param keyField field that identifies an item, e.g. appId
+     * @param name     leases of different crawlers on the same collection are independent
+     */
+    public WorkLease(MongoCollection<Document> collection, String keyField, String name, String owner, long leaseMillis) {
+        this.collection = collection;
+        this.keyField = keyField;
+        this.leaseField = LEASE + "." + name;
+        this.prefix = leaseField + ".";
+        this.owner = owner;
+        this.leaseMillis = leaseMillis;
+
+        collection.createIndex(Indexes.ascending(prefix + CLAIM), new IndexOptions().sparse(true));
+        renewer = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("lease-renewer"));
+        long period = Math.max(1000, leaseMillis / 3);
+        renewer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                renew();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Streams the items matching the filter, claiming a batch whenever the previous one is used up.
+     */
+    public MongoCursor<Document> claim(Bson filter, Bson sort, Bson projection, int batchSize) {
+        return new ClaimingCursor(filter, sort, projection, batchSize);
+    }
+
+    /**
+     * Stops renewing the lease of a finished item, it runs out on its own.
+     */
+    public void done(String key) {
+        held.remove(key);
+    }
+
+    /**
+     * Stops renewing the lease of a failed item and extends it to retryAfterMillis from now, it is claimed again
+     * once that runs out.
+     */
+    public void failed(String key, long retryAfterMillis) {
+        held.remove(key);
+        try {
+            collection.updateOne(and(eq(keyField, key), eq(prefix + OWNER, owner)),
+                    set(prefix + EXPIRES, System.currentTimeMillis() + retryAfterMillis));
+            heldBack.incrementAndGet();
+        } catch (Exception e) {
+            // the lease runs out on its own, the item is then claimed again like an unfinished one
+            log.info("Holding back failed item " + key + " failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stops renewing and hands back the items that were claimed but not worked on.
+     */
+    public void close() {
+        renewer.shutdownNow();
+        if (!held.isEmpty()) {
+            collection.updateMany(and(in(keyField, new ArrayList<String>(held)), eq(prefix + OWNER, owner)), unset(leaseField));
+            held.clear();
+        }
+        log.info("Lease " + leaseField + " of " + owner + ": " + claimed + " items claimed, " + lost + " lost to other nodes, "
+                + heldBack.get() + " failed items held back");
+    }
+
+    /**
+     * @return the claimed documents, empty if other processes took all candidates, null if there are none left
+     */
+    private List<Document> claimBatch(Bson filter, Bson sort, Bson projection, int batchSize) {
+        long now = System.currentTimeMillis();
+        Bson unleased = or(exists(prefix + EXPIRES, false), lt(prefix + EXPIRES, now));
+
+        List<String> candidates = new ArrayList<String>(batchSize);
+        FindIterable<Document> find = collection.find(and(filter, unleased))
+                .projection(fields(include(keyField), excludeId()))
+                .limit(batchSize);
+        try (MongoCursor<Document> cursor = (sort == null ? find : find.sort(sort)).iterator()) {
+            while (cursor.hasNext()) {
+                candidates.add(cursor.next().getString(keyField));
+            }
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+
+        String claim = owner + ":" + claims.incrementAndGet();
+        collection.updateMany(and(in(keyField, candidates), filter, unleased), combine(
+                set(prefix + OWNER, owner),
+                set(prefix + EXPIRES, now + leaseMillis),
+                set(prefix + CLAIM, claim)));
+
+        Map<String, Document> claimedByKey = new HashMap<String, Document>();
+        try (MongoCursor<Document> cursor = collection.find(eq(prefix + CLAIM, claim)).projection(projection).iterator()) {
+            while (cursor.hasNext()) {
+                Document document = cursor.next();
+                claimedByKey.put(document.getString(keyField), document);
+            }
+        }
+        // the re-read comes back in natural order, the candidates carry the order of the sort
+        List<Document> batch = new ArrayList<Document>(claimedByKey.size());
+        for (String key : candidates) {
+            Document document = claimedByKey.get(key);
+            if (document != null) {
+                held.add(key);
+                batch.add(document);
+            }
+        }
+        claimed += batch.size();
+        lost += candidates.size() - batch.size();
+        return batch;
+    }
+
+    private void renew() {
+        if (held.isEmpty()) {
+            return;
+        }
+        try {
+            collection.updateMany(and(in(keyField, new ArrayList<String>(held)), eq(prefix + OWNER, owner)),
+                    set(prefix + EXPIRES, System.currentTimeMillis() + leaseMillis));
+        } catch (Exception e) {
+            // the next round tries again, the lease is long enough to miss a few
+            log.info("Renewing leases failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Claims the next batch once the current one is handed out. The stream ends when a claim finds no candidates.
+     */
+    private class ClaimingCursor implements MongoCursor<Document> {
+        private final Bson filter;
+        private final Bson sort;
+        private final Bson projection;
+        private final int batchSize;
+
+        private Iterator<Document> batch = Collections.<Document>emptyList().iterator();
+        private boolean exhausted;
+
+        ClaimingCursor(Bson filter, Bson sort, Bson projection, int batchSize) {
+            this.filter = filter;
+            this.sort = sort;
+            this.projection = projection;
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!batch.hasNext() && !exhausted) {
+                List<Document> next = claimBatch(filter, sort, projection, batchSize);
+                if (next == null) {
+                    exhausted = true;
+                } else {
+                    batch = next.iterator();
+                }
+            }
+            return batch.hasNext();
+        }
+
+        @Override
+        public Document next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return batch.next();
+        }
+
+        @Override
+        public Document tryNext() {
+            return hasNext() ? batch.next() : null;
+        }
+
+        @Override
+        public void close() {
+            WorkLease.this.close();
+        }
+
+        @Override
+        public ServerCursor getServerCursor() {
+            return null;
+        }
+
+        @Override
+        public ServerAddress getServerAddress() {
+            return null;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("remove");
+        }
+    }
+}
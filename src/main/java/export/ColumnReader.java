@@ -0,0 +1,167 @@
+package export;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads one column file row group by row group, so a scan over a few columns only reads and inflates those. Missing
+ * values are returned as null, JSON columns as their JSON string.
+ */
+public class ColumnReader implements Iterator<Object>, Closeable {
+
+    private final DataInputStream in;
+    private final ColumnType type;
+    private final Inflater inflater = new Inflater();
+
+    private Object[] group = new Object[0];
+    private int position;
+
+    public ColumnReader(File file) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        byte[] magic = new byte[ColumnWriter.MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(magic, ColumnWriter.MAGIC)) {
+            in.close();
+            throw new IOException("Not a column file: " + file);
+        }
+        type = ColumnType.values()[in.readUnsignedByte()];
+    }
+
+    public ColumnType type() {
+        return type;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (position < group.length) {
+            return true;
+        }
+        try {
+            return readGroup();
+        } catch (IOException e) {
+            throw new IllegalStateException("Reading row group failed", e);
+        }
+    }
+
+    @Override
+    public Object next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return group[position++];
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        in.close();
+    }
+
+    private boolean readGroup() throws IOException {
+        int rows;
+        try {
+            rows = in.readInt();
+        } catch (EOFException e) {
+            return false;
+        }
+        int rawLength = in.readInt();
+        byte[] compressed = new byte[in.readInt()];
+        in.readFully(compressed);
+
+        byte[] raw = new byte[rawLength];
+        inflater.reset();
+        inflater.setInput(compressed);
+        try {
+            int length = 0;
+            while (length < rawLength) {
+                int inflated = inflater.inflate(raw, length, rawLength - length);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated row group, " + length + " of " + rawLength + " bytes");
+                }
+                length += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt row group", e);
+        }
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(raw));
+
+        byte[] presence = new byte[(rows + 7) / 8];
+        data.readFully(presence);
+
+        group = new Object[rows];
+        position = 0;
+        switch (type) {
+            case LONG:
+                long previous = 0;
+                for (int i = 0; i < rows; i++) {
+                    if (present(presence, i)) {
+                        previous += unzigzag(readVarLong(data));
+                        group[i] = previous;
+                    }
+                }
+                break;
+            case DOUBLE:
+                for (int i = 0; i < rows; i++) {
+                    if (present(presence, i)) {
+                        group[i] = data.readDouble();
+                    }
+                }
+                break;
+            case DICT:
+                String[] dictionary = new String[(int) readVarLong(data)];
+                for (int i = 0; i < dictionary.length; i++) {
+                    dictionary[i] = readString(data);
+                }
+                for (int i = 0; i < rows; i++) {
+                    if (present(presence, i)) {
+                        group[i] = dictionary[(int) readVarLong(data)];
+                    }
+                }
+                break;
+            default:
+                for (int i = 0; i < rows; i++) {
+                    if (present(presence, i)) {
+                        group[i] = readString(data);
+                    }
+                }
+        }
+        return rows > 0 || readGroup();
+    }
+
+    private static boolean present(byte[] presence, int row) {
+        return (presence[row / 8] & (1 << (row % 8))) != 0;
+    }
+
+    private static String readString(DataInputStream data) throws IOException {
+        byte[] bytes = new byte[(int) readVarLong(data)];
+        data.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long readVarLong(DataInputStream data) throws IOException {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            int b = data.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package export;
+
+/**
+ * How the values of an exported column are stored.
+ */
+public enum ColumnType {
+    // zigzag varint delta to the previous value of the row group, cheap for timestamps and counts
+    LONG,
+    // 8 bytes IEEE 754
+    DOUBLE,
+    // varint byte length and UTF-8
+    STRING,
+    // the distinct strings of the row group once, then a varint code per value
+    DICT,
+    // nested values, lists and maps, as a JSON string
+    JSON
+}
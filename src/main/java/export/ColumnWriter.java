@@ -0,0 +1,188 @@
+package export;
+
+import com.mongodb.util.JSON;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Writes the values of one column to its own file in row groups, see ColumnarExporter for the layout. Only the
+ * current row group is held in memory; it is written once it has the configured number of rows or its text
+ * reaches MAX_GROUP_CHARS, so columns of long texts like descriptions stay bounded as well.
+ */
+public class ColumnWriter implements Closeable {
+
+    public static final byte[] MAGIC = {'C', 'O', 'L', '1'};
+    private static final int MAX_GROUP_CHARS = 8 * 1024 * 1024;
+
+    private final ColumnType type;
+    private final int rowGroupRows;
+    private final Deflater deflater;
+    private final DataOutputStream out;
+
+    private final List<Object> values = new ArrayList<Object>();
+    private long groupChars;
+    private long rows;
+
+    public ColumnWriter(File file, ColumnType type, int rowGroupRows, int compressionLevel) throws IOException {
+        this.type = type;
+        this.rowGroupRows = rowGroupRows;
+        this.deflater = new Deflater(compressionLevel);
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        out.write(MAGIC);
+        out.writeByte(type.ordinal());
+    }
+
+    /**
+     * @param value the raw field value of the document, null for a missing field
+     */
+    public void add(Object value) throws IOException {
+        Object normalized = normalize(value);
+        values.add(normalized);
+        if (normalized instanceof String) {
+            groupChars += ((String) normalized).length();
+        }
+        rows++;
+        if (values.size() >= rowGroupRows || groupChars >= MAX_GROUP_CHARS) {
+            writeGroup();
+        }
+    }
+
+    public long rows() {
+        return rows;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            writeGroup();
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    /**
+     * Maps the value to the Java type of the column, values of an unexpected type become null.
+     */
+    private Object normalize(Object value) {
+        if (value == null) {
+            return null;
+        }
+        switch (type) {
+            case LONG:
+                return value instanceof Number ? ((Number) value).longValue() : null;
+            case DOUBLE:
+                return value instanceof Number ? ((Number) value).doubleValue() : null;
+            case JSON:
+                return JSON.serialize(value);
+            default:
+                return value.toString();
+        }
+    }
+
+    /**
+     * [int rows][int raw length][int compressed length][deflated presence bitmap and values]
+     */
+    private void writeGroup() throws IOException {
+        if (values.isEmpty()) {
+            return;
+        }
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(raw);
+
+        byte[] presence = new byte[(values.size() + 7) / 8];
+        for (int i = 0; i < values.size(); i++) {
+            if (values.get(i) != null) {
+                presence[i / 8] |= 1 << (i % 8);
+            }
+        }
+        data.write(presence);
+
+        switch (type) {
+            case LONG:
+                long previous = 0;
+                for (Object value : values) {
+                    if (value != null) {
+                        long current = (Long) value;
+                        writeVarLong(data, zigzag(current - previous));
+                        previous = current;
+                    }
+                }
+                break;
+            case DOUBLE:
+                for (Object value : values) {
+                    if (value != null) {
+                        data.writeDouble((Double) value);
+                    }
+                }
+                break;
+            case DICT:
+                Map<String, Integer> codes = new LinkedHashMap<String, Integer>();
+                for (Object value : values) {
+                    if (value != null && !codes.containsKey(value)) {
+                        codes.put((String) value, codes.size());
+                    }
+                }
+                writeVarLong(data, codes.size());
+                for (String value : codes.keySet()) {
+                    writeString(data, value);
+                }
+                for (Object value : values) {
+                    if (value != null) {
+                        writeVarLong(data, codes.get(value));
+                    }
+                }
+                break;
+            default:
+                for (Object value : values) {
+                    if (value != null) {
+                        writeString(data, (String) value);
+                    }
+                }
+        }
+        data.flush();
+
+        byte[] bytes = raw.toByteArray();
+        deflater.reset();
+        deflater.setInput(bytes);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 2 + 64);
+        byte[] buffer = new byte[64 * 1024];
+        while (!deflater.finished()) {
+            int length = deflater.deflate(buffer);
+            compressed.write(buffer, 0, length);
+        }
+
+        out.writeInt(values.size());
+        out.writeInt(bytes.length);
+        out.writeInt(compressed.size());
+        compressed.writeTo(out);
+
+        values.clear();
+        groupChars = 0;
+    }
+
+    private static void writeString(DataOutputStream data, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(data, bytes.length);
+        data.write(bytes);
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static void writeVarLong(DataOutputStream data, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            data.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        data.writeByte((int) value);
+    }
+}
@@ -0,0 +1,189 @@
+package export;
+
+import com.mongodb.client.MongoCursor;
+import db.AppReader;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import utils.EnvReader;
+import utils.NamedThreadFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import static com.mongodb.client.model.Projections.excludeId;
+import static com.mongodb.client.model.Projections.fields;
+import static com.mongodb.client.model.Projections.include;
+
+/**
+ * Exports the app collection to compressed column files, as a faster and much smaller alternative to mongoexport.
+ *
+ * The app ids are split into ranges from a random sample, and every range is streamed in id order by its own
+ * cursor on its own thread into its own part directory. Every column of a part is a separate file, so a scan that
+ * needs the ratings does not read the descriptions. Only one row group per column is in memory at a time.
+ *
+ * On-disk layout:
+ * schema                   lines of [column name][tab][ColumnType]
+ * part-NNNNN/<column>.col  [4 byte magic][byte ColumnType] then row groups, see ColumnWriter
+ *
+ * All column files of a part have the same number of rows in the same order, row i of every column belongs to the
+ * same app. ColumnReader reads a column file back.
+ */
+public class ColumnarExporter {
+    private static final Logger log = Logger.getLogger(ColumnarExporter.class.getName());
+
+    private static final String DB_NAME = "apps";
+    private static final String DATA_COLLECTION = "data";
+    static final String SCHEMA_FILE = "schema";
+    static final String PART_PREFIX = "part-";
+    static final String COLUMN_SUFFIX = ".col";
+
+    private final AppReader appReader;
+    private final File directory;
+    private final int threads;
+    private final int rowGroupRows;
+    private final int compressionLevel;
+    private final int batchSize;
+
+    public ColumnarExporter(AppReader appReader, File directory, int threads, int rowGroupRows, int compressionLevel, int batchSize) {
+        this.appReader = appReader;
+        this.directory = directory;
+        this.threads = threads;
+        this.rowGroupRows = rowGroupRows;
+        this.compressionLevel = compressionLevel;
+        this.batchSize = batchSize;
+    }
+
+    public static void main(String[] args) throws IOException {
+        File directory = new File(EnvReader.readEnvVariable("EXPORT_DIR", "export"));
+        int threads = EnvReader.readIntEnvVariable("EXPORT_THREADS", Runtime.getRuntime().availableProcessors());
+        int partitions = EnvReader.readIntEnvVariable("EXPORT_PARTITIONS", threads * 4);
+        int rowGroupRows = EnvReader.readIntEnvVariable("EXPORT_ROW_GROUP_ROWS", 10000);
+        int compressionLevel = EnvReader.readIntEnvVariable("EXPORT_COMPRESSION_LEVEL", 6);
+        int batchSize = EnvReader.readIntEnvVariable("EXPORT_BATCH_SIZE", 1000);
+        String mongoAppDataHost = EnvReader.readEnvVariable("MONGO_APP_DATA_HOST", "localhost");
+        int mongoAppDataPort = EnvReader.readIntEnvVariable("MONGO_APP_DATA_PORT", 27017);
+
+        AppReader appReader = new AppReader(mongoAppDataHost, mongoAppDataPort, DB_NAME, DATA_COLLECTION);
+        if (EnvReader.readBooleanEnvVariable("DICTIONARY_ENCODING", false)) {
+            appReader.enableDictionaryDecoding();
+        }
+        try {
+            long rows = new ColumnarExporter(appReader, directory, threads, rowGroupRows, compressionLevel, batchSize).export(partitions);
+            log.info("Exported " + rows + " apps to " + directory.getAbsolutePath());
+        } finally {
+            appReader.close();
+        }
+    }
+
+    /**
+     * @return the number of exported apps
+     */
+    public long export(int partitions) throws IOException {
+        String[] existing = directory.list();
+        if (existing != null && existing.length > 0) {
+            throw new IOException("Export directory is not empty: " + directory.getAbsolutePath());
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory.getAbsolutePath());
+        }
+        writeSchema();
+
+        List<String> splits = appReader.sampleAppIdSplits(partitions);
+        log.info("Exporting " + (splits.size() + 1) + " app id ranges on " + threads + " threads");
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new NamedThreadFactory("export"));
+        List<Future<Long>> parts = new ArrayList<Future<Long>>();
+        try {
+            for (int i = 0; i <= splits.size(); i++) {
+                final int part = i;
+                final String from = i == 0 ? null : splits.get(i - 1);
+                final String to = i == splits.size() ? null : splits.get(i);
+                parts.add(executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws IOException {
+                        return exportRange(part, from, to);
+                    }
+                }));
+            }
+
+            long rows = 0;
+            for (Future<Long> part : parts) {
+                rows += part.get();
+            }
+            return rows;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Export interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Export failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void writeSchema() throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(new File(directory, SCHEMA_FILE)), StandardCharsets.UTF_8);
+        try {
+            for (Map.Entry<String, ColumnType> column : DatasetSchema.COLUMNS.entrySet()) {
+                writer.write(column.getKey() + "\t" + column.getValue().name() + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private long exportRange(int part, String fromInclusive, String toExclusive) throws IOException {
+        File partDirectory = new File(directory, String.format("%s%05d", PART_PREFIX, part));
+        if (!partDirectory.mkdirs()) {
+            throw new IOException("Could not create " + partDirectory.getAbsolutePath());
+        }
+
+        Map<String, ColumnWriter> writers = new LinkedHashMap<String, ColumnWriter>();
+        Bson projection = fields(include(DatasetSchema.names()), excludeId());
+        MongoCursor<Document> cursor = appReader.streamAppRange(fromInclusive, toExclusive, projection, batchSize);
+        try {
+            for (Map.Entry<String, ColumnType> column : DatasetSchema.COLUMNS.entrySet()) {
+                writers.put(column.getKey(), new ColumnWriter(new File(partDirectory, column.getKey() + COLUMN_SUFFIX),
+                        column.getValue(), rowGroupRows, compressionLevel));
+            }
+            long rows = 0;
+            while (cursor.hasNext()) {
+                Document document = appReader.decode(cursor.next());
+                for (Map.Entry<String, ColumnWriter> writer : writers.entrySet()) {
+                    writer.getValue().add(document.get(writer.getKey()));
+                }
+                rows++;
+            }
+            // closing writes the last row groups, a failure there has to fail the part
+            for (ColumnWriter writer : writers.values()) {
+                writer.close();
+            }
+            writers.clear();
+            log.info("Exported " + rows + " apps to " + partDirectory.getName());
+            return rows;
+        } finally {
+            cursor.close();
+            for (ColumnWriter writer : writers.values()) {
+                closeQuietly(writer);
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            log.info("Closing failed: " + e.getMessage());
+        }
+    }
+}
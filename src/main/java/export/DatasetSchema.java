@@ -0,0 +1,71 @@
+package export;
+
+import crawler.appbrain.AppBrainInfo;
+import crawler.appinfo.AppInfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The columns of the exported app dataset, the AppInfo and AppBrainInfo fields with the parsed numeric fields.
+ * Text with few distinct values is dictionary encoded per row group, free text stays plain.
+ */
+public final class DatasetSchema {
+
+    public static final Map<String, ColumnType> COLUMNS;
+
+    static {
+        Map<String, ColumnType> columns = new LinkedHashMap<String, ColumnType>();
+        columns.put(AppInfo.APP_ID, ColumnType.STRING);
+        columns.put(AppInfo.LAST_APP_INFO_CRAWL_TIMESTAMP, ColumnType.LONG);
+        columns.put(AppInfo.NAME, ColumnType.STRING);
+        columns.put(AppInfo.LINK_NAME, ColumnType.STRING);
+        columns.put(AppInfo.PRICE, ColumnType.DOUBLE);
+        columns.put(AppInfo.STAR_RATING, ColumnType.DOUBLE);
+        columns.put(AppInfo.CATEGORY, ColumnType.DICT);
+        columns.put(AppInfo.BADGE, ColumnType.DICT);
+        columns.put(AppInfo.AUTHOR, ColumnType.DICT);
+        columns.put(AppInfo.TOTAL_NR_OF_REVIEWS, ColumnType.LONG);
+        columns.put(AppInfo.REVIEWS_PER_STAR_RATING, ColumnType.JSON);
+        columns.put(AppInfo.DESCRIPTION, ColumnType.STRING);
+        columns.put(AppInfo.WHATS_NEW, ColumnType.STRING);
+        columns.put(AppInfo.LAST_UPDATED, ColumnType.DICT);
+        columns.put(AppInfo.LAST_UPDATED_MILLIS, ColumnType.LONG);
+        columns.put(AppInfo.SIZE, ColumnType.DICT);
+        columns.put(AppInfo.SIZE_BYTES, ColumnType.LONG);
+        columns.put(AppInfo.INSTALLS, ColumnType.DICT);
+        columns.put(AppInfo.INSTALLS_MIN, ColumnType.LONG);
+        columns.put(AppInfo.INSTALLS_MAX, ColumnType.LONG);
+        columns.put(AppInfo.CURRENT_VERSION, ColumnType.DICT);
+        columns.put(AppInfo.REQUIRED_ANDROID_VERSION, ColumnType.DICT);
+        columns.put(AppInfo.CONTENT_RATING, ColumnType.DICT);
+        columns.put(AppInfo.PERMISSIONS, ColumnType.STRING);
+        columns.put(AppInfo.IN_APP_PRODUCTS, ColumnType.DICT);
+        columns.put(AppInfo.APP_URL, ColumnType.STRING);
+        columns.put(AppInfo.SIMILAR_APPS, ColumnType.JSON);
+        columns.put(AppInfo.SIMILAR_APPS_URL, ColumnType.STRING);
+        columns.put(AppInfo.USER_COMMENTS, ColumnType.STRING);
+        columns.put(AppInfo.OFFERS_IN_APP_PURCHASES, ColumnType.DICT);
+        columns.put(AppBrainInfo.LAST_APP_BRAIN_CRAWL_TIMESTAMP, ColumnType.LONG);
+        columns.put(AppBrainInfo.RANKING, ColumnType.STRING);
+        columns.put(AppBrainInfo.RANK, ColumnType.LONG);
+        columns.put(AppBrainInfo.BINARY_SIZE, ColumnType.DICT);
+        columns.put(AppBrainInfo.BINARY_SIZE_BYTES, ColumnType.LONG);
+        columns.put(AppBrainInfo.LIBRARIES, ColumnType.LONG);
+        columns.put(AppBrainInfo.AGE, ColumnType.DICT);
+        columns.put(AppBrainInfo.AGE_MILLIS, ColumnType.LONG);
+        columns.put(AppBrainInfo.COMMENTS_TAG, ColumnType.JSON);
+        columns.put(AppBrainInfo.RESOURCE_PERMISSIONS, ColumnType.JSON);
+        COLUMNS = Collections.unmodifiableMap(columns);
+    }
+
+    private DatasetSchema() {
+    }
+
+    public static List<String> names() {
+        return new ArrayList<String>(COLUMNS.keySet());
+    }
+}
@@ -0,0 +1,268 @@
+package journal;
+
+import com.mongodb.MongoClient;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only write-ahead journal made of memory-mapped segment files.
+ *
+ * Every record is laid out as [int length][int crc32][byte type][bson document]. A zero length marks the end of
+ * the written part of a segment, a checksum mismatch marks a record torn by a crash. Segments left over from a
+ * previous run are sealed on open and handed to the shipper before the new ones.
+ */
+public class Journal {
+    private static final Logger log = Logger.getLogger(Journal.class.getName());
+
+    public static final byte APP_INFO = 1;
+    public static final byte APP_BRAIN_INFO = 2;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".jnl";
+    private static final int HEADER_BYTES = 9;
+
+    private static final DocumentCodec CODEC = new DocumentCodec(MongoClient.getDefaultCodecRegistry());
+
+    private final File dir;
+    private final int segmentBytes;
+    private final boolean forceOnAppend;
+
+    // sealed segments in order, guarded by this
+    private final List<Segment> sealed = new ArrayList<Segment>();
+    private Segment active;
+    private long nextSequence;
+
+    public Journal(File dir, int segmentBytes, boolean forceOnAppend) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.forceOnAppend = forceOnAppend;
+
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create journal directory " + dir);
+        }
+        recover();
+        active = createSegment(segmentBytes);
+    }
+
+    public void append(byte type, Document document) throws IOException {
+        byte[] payload = encode(document);
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload);
+
+        synchronized (this) {
+            int recordBytes = HEADER_BYTES + payload.length;
+            // keep room for the terminating zero length
+            if (active.writePosition + recordBytes + 4 > active.capacity) {
+                roll(recordBytes + 4);
+            }
+            ByteBuffer buffer = active.writeView;
+            buffer.position(active.writePosition);
+            buffer.putInt(payload.length + 1);
+            buffer.putInt((int) crc.getValue());
+            buffer.put(type);
+            buffer.put(payload);
+            if (forceOnAppend) {
+                active.buffer.force();
+            }
+            // publish only after the bytes are in place, the shipper reads up to this position
+            active.writePosition += recordBytes;
+        }
+    }
+
+    /**
+     * @return the oldest segment that still has records to ship, or the active segment if all others are done
+     */
+    synchronized Segment oldestSegment() {
+        return sealed.isEmpty() ? active : sealed.get(0);
+    }
+
+    synchronized boolean isSealed(Segment segment) {
+        return segment != active;
+    }
+
+    /**
+     * Drops a sealed segment once all of its records have reached the database.
+     */
+    synchronized void release(Segment segment) {
+        if (segment == active) {
+            return;
+        }
+        sealed.remove(segment);
+        segment.close();
+        if (!segment.file.delete()) {
+            log.info("Could not delete shipped journal segment " + segment.file);
+        }
+    }
+
+    public synchronized void close() {
+        active.buffer.force();
+    }
+
+    /**
+     * Reads the records of a segment between the given offset and the published write position.
+     */
+    static List<Record> read(Segment segment, int fromOffset, int maxRecords) {
+        List<Record> records = new ArrayList<Record>();
+        ByteBuffer view = segment.buffer.duplicate();
+        int limit = segment.writePosition;
+        int offset = fromOffset;
+
+        while (records.size() < maxRecords && offset + HEADER_BYTES <= limit) {
+            view.position(offset);
+            int length = view.getInt();
+            int checksum = view.getInt();
+            byte type = view.get();
+            byte[] payload = new byte[length - 1];
+            view.get(payload);
+            offset += HEADER_BYTES + payload.length;
+
+            if (!matches(checksum, type, payload)) {
+                log.info("Skipping corrupt journal record in " + segment.file + " before offset " + offset);
+                continue;
+            }
+            records.add(new Record(type, decode(payload), offset));
+        }
+        return records;
+    }
+
+    private void recover() throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+                continue;
+            }
+            long sequence = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+            nextSequence = Math.max(nextSequence, sequence + 1);
+
+            Segment segment = Segment.map(file, (int) file.length());
+            segment.writePosition = scanWrittenBytes(segment);
+            if (segment.writePosition == 0) {
+                segment.close();
+                file.delete();
+            } else {
+                log.info("Replaying unshipped journal segment " + file + " (" + segment.writePosition + " bytes)");
+                sealed.add(segment);
+            }
+        }
+    }
+
+    /**
+     * Finds the end of the last complete record, a crash may leave a torn record behind.
+     */
+    private static int scanWrittenBytes(Segment segment) {
+        ByteBuffer view = segment.buffer.duplicate();
+        int offset = 0;
+        while (offset + HEADER_BYTES <= segment.capacity) {
+            view.position(offset);
+            int length = view.getInt();
+            if (length <= 0 || offset + HEADER_BYTES - 1 + length > segment.capacity) {
+                break;
+            }
+            int checksum = view.getInt();
+            byte type = view.get();
+            byte[] payload = new byte[length - 1];
+            view.get(payload);
+            if (!matches(checksum, type, payload)) {
+                break;
+            }
+            offset += HEADER_BYTES - 1 + length;
+        }
+        return offset;
+    }
+
+    private void roll(int minBytes) throws IOException {
+        active.buffer.force();
+        sealed.add(active);
+        active = createSegment(Math.max(segmentBytes, minBytes));
+    }
+
+    private Segment createSegment(int capacity) throws IOException {
+        File file = new File(dir, String.format("%s%012d%s", SEGMENT_PREFIX, nextSequence++, SEGMENT_SUFFIX));
+        return Segment.map(file, capacity);
+    }
+
+    private static boolean matches(int checksum, byte type, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload);
+        return (int) crc.getValue() == checksum;
+    }
+
+    private static byte[] encode(Document document) {
+        BasicOutputBuffer output = new BasicOutputBuffer();
+        CODEC.encode(new BsonBinaryWriter(output), document, EncoderContext.builder().build());
+        return output.toByteArray();
+    }
+
+    private static Document decode(byte[] payload) {
+        return CODEC.decode(new BsonBinaryReader(ByteBuffer.wrap(payload)), DecoderContext.builder().build());
+    }
+
+    static class Segment {
+        final File file;
+        final int capacity;
+        final MappedByteBuffer buffer;
+        // positioned by the appending thread only, readers work on their own duplicates of buffer
+        final ByteBuffer writeView;
+        private final RandomAccessFile raf;
+        volatile int writePosition;
+
+        private Segment(File file, int capacity, RandomAccessFile raf, MappedByteBuffer buffer) {
+            this.file = file;
+            this.capacity = capacity;
+            this.raf = raf;
+            this.buffer = buffer;
+            this.writeView = buffer.duplicate();
+        }
+
+        static Segment map(File file, int capacity) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            return new Segment(file, capacity, raf, buffer);
+        }
+
+        void close() {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                log.info("Closing journal segment failed: " + e.getMessage());
+            }
+        }
+    }
+
+    static class Record {
+        final byte type;
+        final Document document;
+        // offset right behind this record
+        final int endOffset;
+
+        Record(byte type, Document document, int endOffset) {
+            this.type = type;
+            this.document = document;
+            this.endOffset = endOffset;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package journal;
+
+import com.mongodb.MongoException;
+import db.DBWriter;
+import org.bson.Document;
+import utils.NamedThreadFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Background thread that replays journal segments into the database in batches and deletes them once shipped.
+ * While the database is unreachable records simply stay in the journal and are retried with a growing pause.
+ */
+public class JournalShipper implements Runnable {
+    private static final Logger log = Logger.getLogger(JournalShipper.class.getName());
+
+    private static final long MAX_RETRY_PAUSE_MILLIS = 60000;
+
+    private final Journal journal;
+    private final DBWriter dbWriter;
+    private final int batchSize;
+    private final long idlePauseMillis;
+    private final Thread thread;
+
+    private volatile boolean running = true;
+    private Journal.Segment current;
+    private int shippedOffset;
+
+    public JournalShipper(Journal journal, DBWriter dbWriter, int batchSize, long idlePauseMillis) {
+        this.journal = journal;
+        this.dbWriter = dbWriter;
+        this.batchSize = batchSize;
+        this.idlePauseMillis = idlePauseMillis;
+        this.thread = new NamedThreadFactory("journal-shipper").newThread(this);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        long retryPause = idlePauseMillis;
+        while (running) {
+            try {
+                if (!shipBatch()) {
+                    pause(idlePauseMillis);
+                }
+                retryPause = idlePauseMillis;
+            } catch (MongoException e) {
+                log.info("Shipping journal failed, retrying in " + retryPause + " ms: " + e.getMessage());
+                pause(retryPause);
+                retryPause = Math.min(retryPause * 2, MAX_RETRY_PAUSE_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Stops the background thread and ships whatever is left. Records that cannot be shipped now stay on disk
+     * and are replayed on the next start.
+     */
+    public void close() {
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            while (shipBatch()) {
+                // drain
+            }
+        } catch (MongoException e) {
+            log.info("Leaving unshipped records in the journal: " + e.getMessage());
+        }
+        journal.close();
+    }
+
+    /**
+     * @return true if there was something to ship
+     */
+    private boolean shipBatch() {
+        Journal.Segment segment = journal.oldestSegment();
+        if (segment != current) {
+            current = segment;
+            shippedOffset = 0;
+        }
+
+        // check before reading, a sealed segment does not grow anymore
+        boolean sealed = journal.isSealed(segment);
+        List<Journal.Record> records = Journal.read(segment, shippedOffset, batchSize);
+
+        if (records.isEmpty()) {
+            if (sealed) {
+                journal.release(segment);
+                return true;
+            }
+            return false;
+        }
+
+        ship(records);
+        shippedOffset = records.get(records.size() - 1).endOffset;
+        return true;
+    }
+
+    private void ship(List<Journal.Record> records) {
+        List<Document> appInfos = new ArrayList<Document>();
+        List<Document> appBrainInfos = new ArrayList<Document>();
+
+        for (Journal.Record record : records) {
+            if (record.type == Journal.APP_INFO) {
+                appInfos.add(record.document);
+            } else if (record.type == Journal.APP_BRAIN_INFO) {
+                appBrainInfos.add(record.document);
+            } else {
+                log.info("Skipping journal record of unknown type " + record.type);
+            }
+        }
+
+        dbWriter.writeAppInfoDocuments(appInfos);
+        dbWriter.writeAppBrainDocuments(appBrainInfos);
+        // a batch only counts as shipped once it is in the database
+        dbWriter.flush();
+    }
+
+    private void pause(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            // woken up by close()
+        }
+    }
+}
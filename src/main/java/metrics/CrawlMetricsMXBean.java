@@ -0,0 +1,17 @@
+package metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of the crawl metrics, registered as metrics:type=CrawlMetrics.
+ */
+public interface CrawlMetricsMXBean {
+
+    Map<String, Long> getEventCounts();
+
+    Map<String, Long> getStageCounts();
+
+    Map<String, Double> getStageMeanMillis();
+
+    Map<String, Long> getStageP99Millis();
+}
@@ -0,0 +1,90 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram with fixed bucket bounds. Recording is a binary search and two atomic increments, no locks
+ * and no allocation.
+ */
+public class Histogram {
+
+    // upper bounds in microseconds, the last bucket takes everything above. Extractors and text cleanup take well
+    // below a millisecond, so the low end is finer than one
+    static final long[] BOUNDS_MICROS = {100, 250, 500, 1000, 5000, 10000, 25000, 50000, 100000, 250000, 500000,
+            1000000, 2500000, 5000000, 10000000, 30000000, 60000000};
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS_MICROS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumMicros = new AtomicLong();
+
+    public void record(long millis) {
+        recordMicros(millis * 1000);
+    }
+
+    /**
+     * Records the time passed since a System.nanoTime() taken at the start of the stage.
+     */
+    public void recordSince(long startNanos) {
+        recordMicros((System.nanoTime() - startNanos) / 1000);
+    }
+
+    private void recordMicros(long micros) {
+        int low = 0;
+        int high = BOUNDS_MICROS.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (BOUNDS_MICROS[mid] < micros) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        buckets.incrementAndGet(low);
+        count.incrementAndGet();
+        sumMicros.addAndGet(micros);
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    public long sumMicros() {
+        return sumMicros.get();
+    }
+
+    public long sumMillis() {
+        return sumMicros.get() / 1000;
+    }
+
+    long bucket(int index) {
+        return buckets.get(index);
+    }
+
+    /**
+     * @return upper bound of the bucket the quantile falls into, Long.MAX_VALUE for the overflow bucket
+     */
+    public long quantileUpperBoundMicros(double quantile) {
+        long total = count.get();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS_MICROS.length; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return BOUNDS_MICROS[i];
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Same as above, rounded up to whole milliseconds.
+     */
+    public long quantileUpperBoundMillis(double quantile) {
+        long micros = quantileUpperBoundMicros(quantile);
+        return micros == Long.MAX_VALUE ? micros : (micros + 999) / 1000;
+    }
+}
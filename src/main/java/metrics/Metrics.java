@@ -0,0 +1,240 @@
+package metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import utils.NamedThreadFactory;
+
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Process wide registry of event counters and per-stage latency histograms.
+ *
+ * Stages are the steps a crawl spends its time in: navigation, condition waits, the single extractors, HTTP
+ * fetches, database writes and driver creation. Everything is exposed through JMX and, with a port configured,
+ * in Prometheus text format on http://127.0.0.1:port/metrics, or on another address given as METRICS_BIND.
+ */
+public final class Metrics {
+    private static final Logger log = Logger.getLogger(Metrics.class.getName());
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final String WAIT = "wait.";
+    private static final String WAIT_TIMEOUT = "wait.timeout.";
+
+    private static final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+    private static final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+
+    private static HttpServer server;
+    private static boolean started;
+
+    private Metrics() {
+    }
+
+    public static AtomicLong counter(String event) {
+        AtomicLong counter = counters.get(event);
+        if (counter == null) {
+            counter = new AtomicLong();
+            AtomicLong existing = counters.putIfAbsent(event, counter);
+            if (existing != null) {
+                counter = existing;
+            }
+        }
+        return counter;
+    }
+
+    public static Histogram stage(String stage) {
+        Histogram histogram = histograms.get(stage);
+        if (histogram == null) {
+            histogram = new Histogram();
+            Histogram existing = histograms.putIfAbsent(stage, histogram);
+            if (existing != null) {
+                histogram = existing;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Records a condition wait at a call site, the time waited as stage wait.[site] and a wait that ran into its
+     * bound as event wait.timeout.[site].
+     */
+    public static void recordWait(String callSite, long waitedMillis, boolean met) {
+        stage(WAIT + callSite).record(waitedMillis);
+        if (!met) {
+            counter(WAIT_TIMEOUT + callSite).incrementAndGet();
+        }
+    }
+
+    /**
+     * Registers the MXBean and, for a port above 0, serves the Prometheus endpoint. Only the first call counts.
+     *
+     * @param bindAddress address to serve on, null for the loopback address only
+     */
+    public static synchronized void start(String bindAddress, int port) {
+        if (started) {
+            return;
+        }
+        started = true;
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MXBean(), new ObjectName("metrics:type=CrawlMetrics"));
+        } catch (Exception e) {
+            log.info("Cannot register the metrics MXBean: " + e.getMessage());
+        }
+
+        if (port <= 0) {
+            return;
+        }
+        try {
+            InetSocketAddress address = bindAddress == null
+                    ? new InetSocketAddress(InetAddress.getLoopbackAddress(), port)
+                    : new InetSocketAddress(bindAddress, port);
+            server = HttpServer.create(address, 0);
+            server.createContext("/metrics", new HttpHandler() {
+                @Override
+                public void handle(HttpExchange exchange) throws IOException {
+                    byte[] body = prometheusText().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                }
+            });
+            server.setExecutor(Executors.newSingleThreadExecutor(new NamedThreadFactory("metrics-http")));
+            server.start();
+            log.info("Serving metrics on " + address);
+        } catch (IOException e) {
+            log.info("Cannot serve metrics on port " + port + ": " + e.getMessage());
+        }
+    }
+
+    public static synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    /**
+     * Drops all counters and histograms, e.g. between crawl runs of a harness that share one JVM.
+     */
+    public static void reset() {
+        counters.clear();
+        histograms.clear();
+    }
+
+    /**
+     * Renders all counters and histograms in the Prometheus text exposition format.
+     */
+    public static String prometheusText() {
+        StringBuilder text = new StringBuilder();
+
+        text.append("# TYPE crawler_events_total counter\n");
+        for (Map.Entry<String, AtomicLong> counter : new TreeMap<String, AtomicLong>(counters).entrySet()) {
+            text.append("crawler_events_total{event=\"").append(escape(counter.getKey())).append("\"} ")
+                    .append(counter.getValue().get()).append('\n');
+        }
+
+        text.append("# TYPE crawler_stage_duration_seconds histogram\n");
+        for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(histograms).entrySet()) {
+            String stage = escape(entry.getKey());
+            Histogram histogram = entry.getValue();
+
+            long cumulative = 0;
+            for (int i = 0; i < Histogram.BOUNDS_MICROS.length; i++) {
+                cumulative += histogram.bucket(i);
+                text.append("crawler_stage_duration_seconds_bucket{stage=\"").append(stage).append("\",le=\"")
+                        .append(Histogram.BOUNDS_MICROS[i] / 1000000.0).append("\"} ").append(cumulative).append('\n');
+            }
+            cumulative += histogram.bucket(Histogram.BOUNDS_MICROS.length);
+            text.append("crawler_stage_duration_seconds_bucket{stage=\"").append(stage).append("\",le=\"+Inf\"} ")
+                    .append(cumulative).append('\n');
+            text.append("crawler_stage_duration_seconds_sum{stage=\"").append(stage).append("\"} ")
+                    .append(histogram.sumMicros() / 1000000.0).append('\n');
+            text.append("crawler_stage_duration_seconds_count{stage=\"").append(stage).append("\"} ")
+                    .append(cumulative).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Logs count, total, mean and 99th percentile of every stage, and the timeouts of every wait, for runs without
+     * a scraper.
+     */
+    public static void logSummary() {
+        for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(histograms).entrySet()) {
+            Histogram histogram = entry.getValue();
+            long count = histogram.count();
+            String line = "Stage " + entry.getKey() + ": " + count + " times, " + millis(histogram.sumMicros()) + " ms total, "
+                    + millis(count == 0 ? 0 : histogram.sumMicros() / count) + " ms avg, p99 <= "
+                    + millis(histogram.quantileUpperBoundMicros(0.99)) + " ms";
+            if (entry.getKey().startsWith(WAIT)) {
+                AtomicLong timeouts = counters.get(WAIT_TIMEOUT + entry.getKey().substring(WAIT.length()));
+                line += ", " + (timeouts == null ? 0 : timeouts.get()) + " timeouts";
+            }
+            log.info(line);
+        }
+    }
+
+    private static String millis(long micros) {
+        return micros == Long.MAX_VALUE ? "inf" : String.valueOf(micros / 1000.0);
+    }
+
+    private static String escape(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static class MXBean implements CrawlMetricsMXBean {
+
+        @Override
+        public Map<String, Long> getEventCounts() {
+            Map<String, Long> counts = new TreeMap<String, Long>();
+            for (Map.Entry<String, AtomicLong> counter : counters.entrySet()) {
+                counts.put(counter.getKey(), counter.getValue().get());
+            }
+            return counts;
+        }
+
+        @Override
+        public Map<String, Long> getStageCounts() {
+            Map<String, Long> counts = new TreeMap<String, Long>();
+            for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+                counts.put(entry.getKey(), entry.getValue().count());
+            }
+            return counts;
+        }
+
+        @Override
+        public Map<String, Double> getStageMeanMillis() {
+            Map<String, Double> means = new TreeMap<String, Double>();
+            for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+                long count = entry.getValue().count();
+                means.put(entry.getKey(), count == 0 ? 0 : entry.getValue().sumMicros() / 1000.0 / count);
+            }
+            return means;
+        }
+
+        @Override
+        public Map<String, Long> getStageP99Millis() {
+            Map<String, Long> p99s = new TreeMap<String, Long>();
+            for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+                p99s.put(entry.getKey(), entry.getValue().quantileUpperBoundMillis(0.99));
+            }
+            return p99s;
+        }
+    }
+}
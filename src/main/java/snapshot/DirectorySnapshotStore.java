@@ -0,0 +1,87 @@
+package snapshot;
+
+import java.io.*;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * One gzipped file per key in a plain directory. A new snapshot replaces the previous one atomically, so readers
+ * never see a half written file.
+ */
+public class DirectorySnapshotStore implements SnapshotStore {
+
+    private static final String SUFFIX = ".snap.gz";
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final String UTF_8 = "UTF-8";
+
+    private final File directory;
+
+    public DirectorySnapshotStore(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create snapshot directory " + directory);
+        }
+        this.directory = directory;
+    }
+
+    @Override
+    public void save(String key, PageSnapshot snapshot) throws IOException {
+        File file = fileFor(key);
+        File tmp = new File(directory, file.getName() + TMP_SUFFIX);
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp))))) {
+            byte[] html = snapshot.getHtml().getBytes(StandardCharsets.UTF_8);
+            out.writeUTF(snapshot.getUrl());
+            out.writeLong(snapshot.getCapturedAtMillis());
+            out.writeInt(html.length);
+            out.write(html);
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public PageSnapshot load(String key) throws IOException {
+        File file = fileFor(key);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            String url = in.readUTF();
+            long capturedAtMillis = in.readLong();
+            byte[] html = new byte[in.readInt()];
+            in.readFully(html);
+            return new PageSnapshot(url, capturedAtMillis, new String(html, StandardCharsets.UTF_8));
+        }
+    }
+
+    @Override
+    public List<String> keys() throws IOException {
+        List<String> keys = new ArrayList<String>();
+        String[] names = directory.list();
+        if (names == null) {
+            throw new IOException("Cannot list snapshot directory " + directory);
+        }
+        for (String name : names) {
+            if (name.endsWith(SUFFIX)) {
+                keys.add(URLDecoder.decode(name.substring(0, name.length() - SUFFIX.length()), UTF_8));
+            }
+        }
+        return keys;
+    }
+
+    @Override
+    public void close() {
+        // every save is complete on its own
+    }
+
+    private File fileFor(String key) throws UnsupportedEncodingException {
+        return new File(directory, URLEncoder.encode(key, UTF_8) + SUFFIX);
+    }
+}
@@ -0,0 +1,28 @@
+package snapshot;
+
+/**
+ * The html of a page as the crawler saw it, together with where and when it was captured.
+ */
+public class PageSnapshot {
+    private final String url;
+    private final long capturedAtMillis;
+    private final String html;
+
+    public PageSnapshot(String url, long capturedAtMillis, String html) {
+        this.url = url;
+        this.capturedAtMillis = capturedAtMillis;
+        this.html = html;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public long getCapturedAtMillis() {
+        return capturedAtMillis;
+    }
+
+    public String getHtml() {
+        return html;
+    }
+}
@@ -0,0 +1,166 @@
+package snapshot;
+
+import archive.PageArchive;
+import crawler.appbrain.AppBrainInfo;
+import crawler.appbrain.AppBrainPage;
+import crawler.appinfo.AppInfo;
+import crawler.appinfo.AppInfoPage;
+import db.DBWriter;
+import org.bson.Document;
+import org.jsoup.Jsoup;
+import utils.EnvReader;
+import utils.HtmlExtractor;
+import utils.NamedThreadFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Rebuilds the AppInfo and AppBrainInfo documents from stored page snapshots, without any network access
+ * besides the database. Run it after a selector fix or a new field to update the whole catalogue from disk.
+ */
+public class ReExtractor {
+    private static final Logger log = Logger.getLogger(ReExtractor.class.getName());
+
+    private static final String DB_NAME = "apps";
+    private static final String DATA_COLLECTION = "data";
+    private static final String APP_INFO_DIR = "appinfo";
+    private static final String APP_BRAIN_DIR = "appbrain";
+
+    private final DBWriter dbWriter;
+    private final int threads;
+
+    public ReExtractor(DBWriter dbWriter, int threads) {
+        this.dbWriter = dbWriter;
+        this.threads = threads;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String archiveDir = EnvReader.readEnvVariable("ARCHIVE_DIR");
+        String snapshotDir = EnvReader.readEnvVariable("SNAPSHOT_DIR", "snapshots");
+        int threads = EnvReader.readIntEnvVariable("REEXTRACT_THREADS", Runtime.getRuntime().availableProcessors());
+        String mongoAppDataHost = EnvReader.readEnvVariable("MONGO_APP_DATA_HOST", "localhost");
+        int mongoAppDataPort = EnvReader.readIntEnvVariable("MONGO_APP_DATA_PORT", 27017);
+        int bulkSize = EnvReader.readIntEnvVariable("MONGO_BULK_SIZE", 500);
+
+        // the archive holds the full history, prefer it over plain snapshots
+        boolean fromArchive = archiveDir != null && !archiveDir.isEmpty();
+        File root = new File(fromArchive ? archiveDir : snapshotDir);
+
+        DBWriter dbWriter = new DBWriter(mongoAppDataHost, mongoAppDataPort, DB_NAME, DATA_COLLECTION, bulkSize, 10000);
+        if (EnvReader.readBooleanEnvVariable("CHANGE_DETECTION", true)) {
+            dbWriter.enableChangeDetection();
+        }
+        if (EnvReader.readBooleanEnvVariable("DICTIONARY_ENCODING", false)) {
+            dbWriter.enableDictionaryEncoding();
+        }
+        ReExtractor reExtractor = new ReExtractor(dbWriter, threads);
+        try {
+            File appInfoDir = new File(root, APP_INFO_DIR);
+            if (appInfoDir.isDirectory()) {
+                SnapshotStore store = openStore(appInfoDir, fromArchive);
+                try {
+                    log.info("Re-extracted " + reExtractor.reExtractAppInfos(store) + " app infos");
+                } finally {
+                    store.close();
+                }
+            }
+            File appBrainDir = new File(root, APP_BRAIN_DIR);
+            if (appBrainDir.isDirectory()) {
+                SnapshotStore store = openStore(appBrainDir, fromArchive);
+                try {
+                    log.info("Re-extracted " + reExtractor.reExtractAppBrainInfos(store) + " app brain infos");
+                } finally {
+                    store.close();
+                }
+            }
+        } finally {
+            dbWriter.close();
+        }
+    }
+
+    private static SnapshotStore openStore(File directory, boolean archive) throws IOException {
+        // read-only, a crawler may be writing to the same archive
+        return archive ? PageArchive.openReadOnly(directory) : new DirectorySnapshotStore(directory);
+    }
+
+    public int reExtractAppInfos(SnapshotStore store) throws IOException {
+        return reExtract(store, false);
+    }
+
+    public int reExtractAppBrainInfos(SnapshotStore store) throws IOException {
+        return reExtract(store, true);
+    }
+
+    private int reExtract(final SnapshotStore store, final boolean appBrain) throws IOException {
+        List<String> keys = store.keys();
+        log.info("Re-extracting " + keys.size() + " snapshots on " + threads + " threads");
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new NamedThreadFactory("re-extract"));
+        final Semaphore slots = new Semaphore(threads * 4);
+        final AtomicInteger extracted = new AtomicInteger();
+
+        try {
+            for (final String key : keys) {
+                slots.acquireUninterruptibly();
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            PageSnapshot snapshot = store.load(key);
+                            if (snapshot != null && (appBrain ? writeAppBrainInfo(key, snapshot) : writeAppInfo(snapshot))) {
+                                extracted.incrementAndGet();
+                            }
+                        } catch (Exception e) {
+                            log.info("Skipping snapshot " + key + ": " + e.getMessage());
+                        } finally {
+                            slots.release();
+                        }
+                    }
+                });
+            }
+            slots.acquireUninterruptibly(threads * 4);
+        } finally {
+            executor.shutdown();
+        }
+
+        dbWriter.flush();
+        return extracted.get();
+    }
+
+    private boolean writeAppInfo(PageSnapshot snapshot) {
+        org.jsoup.nodes.Document page = Jsoup.parse(snapshot.getHtml(), snapshot.getUrl());
+        if (page.select(AppInfoPage.TITLE_CSS).isEmpty()) {
+            return false;
+        }
+
+        AppInfo appInfo = AppInfoPage.toAppInfo(HtmlExtractor.extract(page, AppInfoPage.SELECTORS), snapshot.getUrl());
+        appInfo.setLastAppInfoCrawlTimestamp(snapshot.getCapturedAtMillis());
+
+        Document document = appInfo.convertToDocument();
+        // only a live session can open the permissions dialog and follow the similar apps link, keep what it found
+        document.remove(AppInfo.PERMISSIONS);
+        document.remove(AppInfo.SIMILAR_APPS);
+        dbWriter.writeAppInfoDocuments(Collections.singletonList(document));
+        return true;
+    }
+
+    private boolean writeAppBrainInfo(String appId, PageSnapshot snapshot) {
+        org.jsoup.nodes.Document page = Jsoup.parse(snapshot.getHtml(), snapshot.getUrl());
+        if (page.select(AppBrainPage.TITLE_CSS).isEmpty()) {
+            return false;
+        }
+
+        AppBrainInfo appBrainInfo = AppBrainPage.toAppBrainInfo(HtmlExtractor.extract(page, AppBrainPage.SELECTORS), appId);
+        appBrainInfo.setLastAppBrainCrawlTimestamp(snapshot.getCapturedAtMillis());
+        dbWriter.writeAppBrainDocuments(Collections.singletonList(appBrainInfo.convertToDocument()));
+        return true;
+    }
+}
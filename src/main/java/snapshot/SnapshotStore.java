@@ -0,0 +1,21 @@
+package snapshot;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Keeps the latest snapshot of every crawled page, keyed by app id.
+ */
+public interface SnapshotStore {
+
+    void save(String key, PageSnapshot snapshot) throws IOException;
+
+    /**
+     * @return null if there is no snapshot for the key
+     */
+    PageSnapshot load(String key) throws IOException;
+
+    List<String> keys() throws IOException;
+
+    void close() throws IOException;
+}
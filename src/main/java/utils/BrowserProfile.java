@@ -0,0 +1,117 @@
+package utils;
+
+import org.openqa.selenium.chrome.ChromeOptions;
+import org.openqa.selenium.logging.LogType;
+import org.openqa.selenium.logging.LoggingPreferences;
+import org.openqa.selenium.remote.CapabilityType;
+import org.openqa.selenium.remote.DesiredCapabilities;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+
+/**
+ * What a grid browser loads besides the html and scripts a crawler needs.
+ */
+public enum BrowserProfile {
+    // everything, like a user's browser
+    FULL,
+    // no images, video, web fonts or analytics, none of which any extractor reads
+    LEAN;
+
+    // resolved to an unroutable address, requests to them fail without leaving the browser
+    private static final String[] ANALYTICS_HOSTS = {
+            "google-analytics.com", "googletagmanager.com", "doubleclick.net", "googlesyndication.com"
+    };
+    // trailers are YouTube embeds, their player, thumbnails and streams come from the youtube and googlevideo hosts
+    private static final String[] VIDEO_HOSTS = {
+            "youtube.com", "youtube-nocookie.com", "googlevideo.com", "ytimg.com"
+    };
+
+    public static BrowserProfile fromSetting(String setting) {
+        try {
+            return valueOf(setting.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return FULL;
+        }
+    }
+
+    /**
+     * eager for the lean profile, normal otherwise. A grid whose chromedriver does not implement eager falls back
+     * to normal, which the new session logs.
+     */
+    public String defaultPageLoadStrategy() {
+        return this == LEAN ? "eager" : "normal";
+    }
+
+    /**
+     * @return analytics or video for a host the lean profile blocks, null for any other host
+     */
+    public static String blockedKind(String host) {
+        if (host == null) {
+            return null;
+        }
+        if (matches(host, ANALYTICS_HOSTS)) {
+            return "analytics";
+        }
+        if (matches(host, VIDEO_HOSTS)) {
+            return "video";
+        }
+        return null;
+    }
+
+    private static boolean matches(String host, String[] domains) {
+        for (String domain : domains) {
+            if (host.equals(domain) || host.endsWith("." + domain)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param pageLoadStrategy normal waits for every subresource, eager only for the dom, none for nothing. The
+     *                         crawlers wait for their selectors anyway, so eager is safe for them where the grid's
+     *                         chromedriver implements it.
+     */
+    public DesiredCapabilities capabilities(String pageLoadStrategy) {
+        DesiredCapabilities capabilities = DesiredCapabilities.chrome();
+        capabilities.setCapability(CapabilityType.PAGE_LOAD_STRATEGY, pageLoadStrategy);
+        if (this == FULL) {
+            return capabilities;
+        }
+
+        Map<String, Object> prefs = new HashMap<String, Object>();
+        // 2 blocks the content type
+        prefs.put("profile.managed_default_content_settings.images", 2);
+
+        StringBuilder hostRules = new StringBuilder();
+        for (String[] domains : new String[][]{ANALYTICS_HOSTS, VIDEO_HOSTS}) {
+            for (String domain : domains) {
+                if (hostRules.length() > 0) {
+                    hostRules.append(", ");
+                }
+                hostRules.append("MAP *.").append(domain).append(" 0.0.0.0");
+            }
+        }
+
+        // the network events of the performance log show which requests the host rules failed
+        LoggingPreferences logs = new LoggingPreferences();
+        logs.enable(LogType.PERFORMANCE, Level.ALL);
+        capabilities.setCapability(CapabilityType.LOGGING_PREFS, logs);
+        Map<String, Object> perfLogging = new HashMap<String, Object>();
+        perfLogging.put("enableNetwork", true);
+        perfLogging.put("enablePage", false);
+
+        ChromeOptions options = new ChromeOptions();
+        options.setExperimentalOption("prefs", prefs);
+        options.setExperimentalOption("perfLoggingPrefs", perfLogging);
+        options.addArguments(
+                "--blink-settings=imagesEnabled=false",
+                "--disable-remote-fonts",
+                "--autoplay-policy=user-gesture-required",
+                "--host-resolver-rules=" + hostRules);
+        capabilities.setCapability(ChromeOptions.CAPABILITY, options);
+        return capabilities;
+    }
+}
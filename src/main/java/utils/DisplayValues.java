@@ -0,0 +1,148 @@
+package utils;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Parsers for the numbers hidden in display text of the Play Store and AppBrain, such as "1,000,000 - 5,000,000"
+ * installs, a size of "23M" or an update date of "July 3, 2017". Every parser returns null for text it does not
+ * understand, e.g. "Varies with device". The numeric field of such a value is then stored as null next to the
+ * display text, never as a made up 0.
+ */
+public final class DisplayValues {
+
+    private static final long DAY_MILLIS = 86400000L;
+
+    private DisplayValues() {
+    }
+
+    /**
+     * @return lower and upper bound of an install range, the upper bound is null for open ranges like "1,000+"
+     */
+    public static Long[] installBounds(String installs) {
+        if (installs == null) {
+            return null;
+        }
+        String[] bounds = installs.split("-");
+        Long min = leadingNumber(bounds[0]);
+        if (min == null) {
+            return null;
+        }
+        Long max = bounds.length > 1 ? leadingNumber(bounds[1]) : null;
+        return new Long[]{min, max};
+    }
+
+    /**
+     * @param size text such as "23M", "512k", "1.2G" or "12.4MB", units are binary
+     */
+    public static Long bytes(String size) {
+        if (size == null) {
+            return null;
+        }
+        String text = size.trim().replace(",", "").toUpperCase(Locale.US);
+        int unitStart = 0;
+        while (unitStart < text.length() && (Character.isDigit(text.charAt(unitStart)) || text.charAt(unitStart) == '.')) {
+            unitStart++;
+        }
+        if (unitStart == 0) {
+            return null;
+        }
+
+        double value;
+        try {
+            value = Double.parseDouble(text.substring(0, unitStart));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        String unit = text.substring(unitStart).trim();
+        if (unit.isEmpty() || unit.equals("B")) {
+            return (long) value;
+        }
+        switch (unit.charAt(0)) {
+            case 'K':
+                return (long) (value * 1024);
+            case 'M':
+                return (long) (value * 1024 * 1024);
+            case 'G':
+                return (long) (value * 1024 * 1024 * 1024);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @param date text such as "July 3, 2017", taken as midnight UTC
+     */
+    public static Long dateMillis(String date) {
+        if (date == null || date.isEmpty()) {
+            return null;
+        }
+        // not thread safe, a format per call is cheap next to a page load
+        SimpleDateFormat format = new SimpleDateFormat("MMMM d, yyyy", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        try {
+            return format.parse(date.trim()).getTime();
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param ranking text such as "#37 in Productivity"
+     */
+    public static Integer rank(String ranking) {
+        if (ranking == null) {
+            return null;
+        }
+        int hash = ranking.indexOf('#');
+        Long rank = leadingNumber(hash < 0 ? ranking : ranking.substring(hash + 1));
+        return rank == null || rank > Integer.MAX_VALUE ? null : rank.intValue();
+    }
+
+    /**
+     * @param age text such as "3 years old", "2 months" or "5 days"
+     */
+    public static Long ageMillis(String age) {
+        if (age == null) {
+            return null;
+        }
+        Long amount = leadingNumber(age);
+        if (amount == null) {
+            return null;
+        }
+        String unit = age.toLowerCase(Locale.US);
+        if (unit.contains("year")) {
+            return amount * 365 * DAY_MILLIS;
+        }
+        if (unit.contains("month")) {
+            return amount * 30 * DAY_MILLIS;
+        }
+        if (unit.contains("week")) {
+            return amount * 7 * DAY_MILLIS;
+        }
+        if (unit.contains("day")) {
+            return amount * DAY_MILLIS;
+        }
+        return null;
+    }
+
+    /**
+     * @return the first run of digits in the text, thousands separators skipped, null if there is none
+     */
+    private static Long leadingNumber(String text) {
+        long value = 0;
+        boolean digits = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isDigit(c)) {
+                value = value * 10 + (c - '0');
+                digits = true;
+            } else if (digits && c != ',') {
+                break;
+            }
+        }
+        return digits ? value : null;
+    }
+}
@@ -12,7 +12,40 @@ public final class EnvReader {
         return envVar;
     }
 
+    /**
+     * A system property of the same name overrides the environment, so a harness can configure crawlers it runs
+     * in-process.
+     */
     public static String readEnvVariable(String name) {
-        return System.getenv().get(name);
+        String property = System.getProperty(name);
+        return property != null ? property : System.getenv().get(name);
+    }
+
+    public static int readIntEnvVariable(String name, int fallback) {
+        try {
+            return Integer.parseInt(readEnvVariable(name, String.valueOf(fallback)).trim());
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    public static long readLongEnvVariable(String name, long fallback) {
+        try {
+            return Long.parseLong(readEnvVariable(name, String.valueOf(fallback)).trim());
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    public static double readDoubleEnvVariable(String name, double fallback) {
+        try {
+            return Double.parseDouble(readEnvVariable(name, String.valueOf(fallback)).trim());
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    public static boolean readBooleanEnvVariable(String name, boolean fallback) {
+        return Boolean.parseBoolean(readEnvVariable(name, String.valueOf(fallback)).trim());
     }
 }
@@ -0,0 +1,91 @@
+package utils;
+
+/**
+ * Describes where a single raw field lives in a page, independent of whether the page is read through a browser
+ * session or parsed from its html.
+ */
+public class FieldSelector {
+
+    public enum Kind {
+        // trimmed text of the first match
+        TEXT,
+        // attribute value of the first match
+        ATTRIBUTE,
+        // trimmed texts of all matches
+        TEXT_LIST,
+        // for every match of css, the text of keyCss mapped to the joined texts of valueCss
+        PAIRS
+    }
+
+    private final String name;
+    private final Kind kind;
+    private final String css;
+    private final String attribute;
+    private final String containsText;
+    private final String keyCss;
+    private final String valueCss;
+
+    private FieldSelector(String name, Kind kind, String css, String attribute, String containsText, String keyCss, String valueCss) {
+        this.name = name;
+        this.kind = kind;
+        this.css = css;
+        this.attribute = attribute;
+        this.containsText = containsText;
+        this.keyCss = keyCss;
+        this.valueCss = valueCss;
+    }
+
+    public static FieldSelector text(String name, String css) {
+        return new FieldSelector(name, Kind.TEXT, css, null, null, null, null);
+    }
+
+    public static FieldSelector attribute(String name, String css, String attribute) {
+        return new FieldSelector(name, Kind.ATTRIBUTE, css, attribute, null, null, null);
+    }
+
+    /**
+     * Attribute of the first match whose text contains the given string.
+     */
+    public static FieldSelector attributeOfElementContaining(String name, String css, String attribute, String containsText) {
+        return new FieldSelector(name, Kind.ATTRIBUTE, css, attribute, containsText, null, null);
+    }
+
+    public static FieldSelector textList(String name, String css) {
+        return new FieldSelector(name, Kind.TEXT_LIST, css, null, null, null, null);
+    }
+
+    /**
+     * @param valueCss selector relative to the matched element, a leading '>' selects direct children only
+     */
+    public static FieldSelector pairs(String name, String css, String keyCss, String valueCss) {
+        return new FieldSelector(name, Kind.PAIRS, css, null, null, keyCss, valueCss);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getCss() {
+        return css;
+    }
+
+    public String getAttribute() {
+        return attribute;
+    }
+
+    public String getContainsText() {
+        return containsText;
+    }
+
+    public String getKeyCss() {
+        return keyCss;
+    }
+
+    public String getValueCss() {
+        return valueCss;
+    }
+}
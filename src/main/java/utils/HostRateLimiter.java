@@ -0,0 +1,137 @@
+package utils;
+
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+/**
+ * Adaptive token bucket per host, shared by all workers of the JVM.
+ *
+ * Every page load takes a token. The refill rate grows additively with every successful page and is halved on
+ * every timeout or error page. Consecutive failures additionally pause the host with an exponentially growing
+ * delay, so a blocked host is probed instead of hammered and throughput recovers as soon as the host answers again.
+ */
+public class HostRateLimiter {
+    private static final Logger log = Logger.getLogger(HostRateLimiter.class.getName());
+
+    private static final ConcurrentMap<String, HostRateLimiter> limiters = new ConcurrentHashMap<String, HostRateLimiter>();
+
+    private static final double BACKOFF_FACTOR = 0.5;
+    private static final long BASE_PAUSE_MILLIS = 5000;
+    private static final long MAX_PAUSE_MILLIS = 300000;
+
+    private final String host;
+    private final double minRate;
+    private final double maxRate;
+    private final double additiveIncrease;
+
+    // requests per second
+    private double rate;
+    private double tokens;
+    private long lastRefillMillis;
+    private long pausedUntilMillis;
+    private int consecutiveFailures;
+
+    HostRateLimiter(String host, double initialRate, double minRate, double maxRate, double additiveIncrease) {
+        this.host = host;
+        this.rate = initialRate;
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.additiveIncrease = additiveIncrease;
+        this.tokens = 1;
+        this.lastRefillMillis = System.currentTimeMillis();
+    }
+
+    public static HostRateLimiter forUrl(String url) {
+        String host = URI.create(url).getHost();
+        HostRateLimiter limiter = limiters.get(host);
+        if (limiter == null) {
+            limiter = create(host);
+            HostRateLimiter existing = limiters.putIfAbsent(host, limiter);
+            if (existing != null) {
+                limiter = existing;
+            }
+        }
+        return limiter;
+    }
+
+    private static HostRateLimiter create(String host) {
+        double maxRate = EnvReader.readDoubleEnvVariable("RATE_LIMIT_MAX_PER_SECOND", 0);
+        double minRate = EnvReader.readDoubleEnvVariable("RATE_LIMIT_MIN_PER_SECOND", 0.0167);
+        if (minRate <= 0) {
+            // the wait for the next token is divided by the rate
+            throw new IllegalArgumentException("RATE_LIMIT_MIN_PER_SECOND must be above 0, got " + minRate);
+        }
+
+        if (host != null && host.endsWith("appbrain.com")) {
+            // AppBrain answers bursts with long timeouts, start slow
+            return new HostRateLimiter(host, 0.5, minRate, maxRate > 0 ? maxRate : 2, 0.01);
+        }
+        if (host != null && host.endsWith("play.google.com")) {
+            return new HostRateLimiter(host, 2, minRate, maxRate > 0 ? maxRate : 8, 0.05);
+        }
+        if ("localhost".equals(host) || "127.0.0.1".equals(host)) {
+            // fixture sites are only throttled on request, one success after an injected error restores the full rate
+            double rate = maxRate > 0 ? maxRate : 1000;
+            return new HostRateLimiter(host, rate, minRate, rate, rate);
+        }
+        return new HostRateLimiter(host, 1, minRate, maxRate > 0 ? maxRate : 4, 0.02);
+    }
+
+    /**
+     * Forgets the state of all hosts, so consecutive runs in one JVM start from the same rates.
+     */
+    public static void reset() {
+        limiters.clear();
+    }
+
+    /**
+     * Blocks until the host may be hit again.
+     */
+    public void acquire() {
+        long waitMillis;
+        while ((waitMillis = reserve()) > 0) {
+            WebDriverUtils.sleep(waitMillis);
+        }
+    }
+
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        rate = Math.min(maxRate, rate + additiveIncrease);
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        rate = Math.max(minRate, rate * BACKOFF_FACTOR);
+        long pause = Math.min(MAX_PAUSE_MILLIS, BASE_PAUSE_MILLIS << Math.min(consecutiveFailures - 1, 16));
+        pausedUntilMillis = System.currentTimeMillis() + pause;
+        tokens = 0;
+        log.info("Backing off " + host + ": " + String.format("%.3f", rate) + " requests/s, pausing " + pause + " ms");
+    }
+
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    /**
+     * @return 0 if a token was taken, otherwise how long to wait before trying again
+     */
+    private synchronized long reserve() {
+        long now = System.currentTimeMillis();
+        if (now < pausedUntilMillis) {
+            return pausedUntilMillis - now;
+        }
+
+        // a burst of at most one second worth of requests
+        double capacity = Math.max(1, rate);
+        tokens = Math.min(capacity, tokens + (now - lastRefillMillis) * rate / 1000);
+        lastRefillMillis = now;
+
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return Math.max(1, (long) Math.ceil((1 - tokens) * 1000 / rate));
+    }
+}
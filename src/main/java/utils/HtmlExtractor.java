@@ -0,0 +1,87 @@
+package utils;
+
+import metrics.Metrics;
+import org.apache.commons.lang3.StringUtils;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads raw field values from parsed html in-process, no browser involved.
+ */
+public final class HtmlExtractor {
+
+    private HtmlExtractor() {
+    }
+
+    /**
+     * @return field name to String (TEXT, ATTRIBUTE), List of String (TEXT_LIST) or Map of String to String (PAIRS).
+     * Fields without a match are left out.
+     */
+    public static Map<String, Object> extract(Document page, List<FieldSelector> selectors) {
+        long start = System.nanoTime();
+        Map<String, Object> values = new HashMap<String, Object>();
+
+        for (FieldSelector selector : selectors) {
+            Elements matches = page.select(selector.getCss());
+            Object value = null;
+
+            switch (selector.getKind()) {
+                case TEXT:
+                    if (!matches.isEmpty()) {
+                        value = StringUtils.trimToNull(matches.first().text());
+                    }
+                    break;
+                case ATTRIBUTE:
+                    Element element = firstContaining(matches, selector.getContainsText());
+                    if (element != null) {
+                        value = StringUtils.trimToNull(element.attr(selector.getAttribute()));
+                    }
+                    break;
+                case TEXT_LIST:
+                    List<String> texts = new ArrayList<String>(matches.size());
+                    for (Element match : matches) {
+                        texts.add(match.text().trim());
+                    }
+                    value = texts;
+                    break;
+                case PAIRS:
+                    Map<String, String> pairs = new LinkedHashMap<String, String>();
+                    for (Element match : matches) {
+                        Elements keys = match.select(selector.getKeyCss());
+                        if (keys.isEmpty()) {
+                            continue;
+                        }
+                        List<String> parts = new ArrayList<String>();
+                        for (Element part : match.select(selector.getValueCss())) {
+                            parts.add(part.text().trim());
+                        }
+                        pairs.put(keys.first().text().trim(), StringUtils.join(parts, " "));
+                    }
+                    value = pairs;
+                    break;
+            }
+
+            if (value != null) {
+                values.put(selector.getName(), value);
+            }
+        }
+        Metrics.stage("extract.html").recordSince(start);
+        return values;
+    }
+
+    private static Element firstContaining(Elements matches, String text) {
+        for (Element match : matches) {
+            if (text == null || match.text().contains(text)) {
+                return match;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,84 @@
+package utils;
+
+import metrics.Metrics;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Logger;
+
+/**
+ * Plain HTTP page fetching for pages whose content does not need a rendering browser.
+ */
+public final class HttpFetcher {
+    private static final Logger log = Logger.getLogger(HttpFetcher.class.getName());
+
+    private static final String USER_AGENT = "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/59.0.3071.115 Safari/537.36";
+    private static final int TIMEOUT_MILLIS = 30000;
+
+    private static final CloseableHttpClient client = HttpClients.custom()
+            .setUserAgent(USER_AGENT)
+            .setMaxConnTotal(64)
+            .setMaxConnPerRoute(32)
+            .setDefaultRequestConfig(RequestConfig.custom()
+                    .setConnectTimeout(TIMEOUT_MILLIS)
+                    .setSocketTimeout(TIMEOUT_MILLIS)
+                    .setConnectionRequestTimeout(TIMEOUT_MILLIS)
+                    .build())
+            .build();
+
+    private HttpFetcher() {
+    }
+
+    /**
+     * @throws PageNotFoundException on a 404, IOException on any other non 200 response
+     */
+    public static String fetch(String url) throws IOException {
+        log.info("Fetching " + url);
+
+        HostRateLimiter rateLimiter = HostRateLimiter.forUrl(url);
+        rateLimiter.acquire();
+
+        HttpGet get = new HttpGet(url);
+        get.setHeader(HttpHeaders.ACCEPT_LANGUAGE, "en-US,en;q=0.8");
+
+        long start = System.nanoTime();
+        try (CloseableHttpResponse response = client.execute(get)) {
+            int status = response.getStatusLine().getStatusCode();
+            String body = response.getEntity() == null ? "" : EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+            Metrics.counter("http.status." + status).incrementAndGet();
+
+            if (status == 404) {
+                rateLimiter.onSuccess();
+                throw new PageNotFoundException(url);
+            }
+            if (status != 200) {
+                // 429, 503 and friends are the host telling us to slow down
+                rateLimiter.onFailure();
+                throw new IOException("HTTP " + status + " for " + url);
+            }
+            rateLimiter.onSuccess();
+            return body;
+        } catch (SocketTimeoutException | ConnectTimeoutException e) {
+            rateLimiter.onFailure();
+            Metrics.counter("http.timeout").incrementAndGet();
+            throw e;
+        } finally {
+            Metrics.stage("http.fetch").recordSince(start);
+        }
+    }
+
+    public static class PageNotFoundException extends IOException {
+        public PageNotFoundException(String url) {
+            super("HTTP 404 for " + url);
+        }
+    }
+}
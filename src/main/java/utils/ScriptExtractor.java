@@ -0,0 +1,94 @@
+package utils;
+
+import com.google.gson.Gson;
+import metrics.Metrics;
+import org.openqa.selenium.JavascriptExecutor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Reads all fields of a page in a single round-trip to the Selenium hub. The selectors are compiled once into a
+ * script that collects every value in the browser and returns them as one map, with the same shape as
+ * HtmlExtractor produces.
+ */
+public final class ScriptExtractor {
+
+    private static final String SCRIPT_BODY = "" +
+            "function text(el) { return (el.innerText || el.textContent || '').trim(); }\n" +
+            "function sub(el, css) { return el.querySelectorAll(css.charAt(0) === '>' ? ':scope ' + css : css); }\n" +
+            "var result = {};\n" +
+            "for (var i = 0; i < spec.length; i++) {\n" +
+            "  var f = spec[i];\n" +
+            "  var matches = document.querySelectorAll(f.css);\n" +
+            "  if (f.kind === 'TEXT') {\n" +
+            "    if (matches.length > 0 && text(matches[0])) { result[f.name] = text(matches[0]); }\n" +
+            "  } else if (f.kind === 'ATTRIBUTE') {\n" +
+            "    for (var j = 0; j < matches.length; j++) {\n" +
+            "      var m = matches[j];\n" +
+            "      if (f.containsText && text(m).indexOf(f.containsText) < 0) { continue; }\n" +
+            "      var v = m.getAttribute(f.attribute);\n" +
+            "      if (v && v.trim()) { result[f.name] = v.trim(); }\n" +
+            "      break;\n" +
+            "    }\n" +
+            "  } else if (f.kind === 'TEXT_LIST') {\n" +
+            "    var texts = [];\n" +
+            "    for (var j = 0; j < matches.length; j++) { texts.push(text(matches[j])); }\n" +
+            "    result[f.name] = texts;\n" +
+            "  } else if (f.kind === 'PAIRS') {\n" +
+            "    var pairs = {};\n" +
+            "    for (var j = 0; j < matches.length; j++) {\n" +
+            "      var keys = sub(matches[j], f.keyCss);\n" +
+            "      if (keys.length === 0) { continue; }\n" +
+            "      var parts = [];\n" +
+            "      var values = sub(matches[j], f.valueCss);\n" +
+            "      for (var k = 0; k < values.length; k++) { parts.push(text(values[k])); }\n" +
+            "      pairs[text(keys[0])] = parts.join(' ');\n" +
+            "    }\n" +
+            "    result[f.name] = pairs;\n" +
+            "  }\n" +
+            "}\n" +
+            "return result;";
+
+    private static final ConcurrentMap<List<FieldSelector>, String> compiled = new ConcurrentHashMap<List<FieldSelector>, String>();
+
+    private ScriptExtractor() {
+    }
+
+    /**
+     * Runs the selectors against the page the current session shows.
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, Object> extract(List<FieldSelector> selectors) {
+        long start = System.nanoTime();
+        Object result = ((JavascriptExecutor) WebDriverUtils.driver()).executeScript(compile(selectors));
+        Metrics.stage("extract.script").recordSince(start);
+        return result instanceof Map ? (Map<String, Object>) result : Collections.<String, Object>emptyMap();
+    }
+
+    static String compile(List<FieldSelector> selectors) {
+        String script = compiled.get(selectors);
+        if (script == null) {
+            List<Map<String, String>> spec = new ArrayList<Map<String, String>>(selectors.size());
+            for (FieldSelector selector : selectors) {
+                Map<String, String> field = new LinkedHashMap<String, String>();
+                field.put("name", selector.getName());
+                field.put("kind", selector.getKind().name());
+                field.put("css", selector.getCss());
+                field.put("attribute", selector.getAttribute());
+                field.put("containsText", selector.getContainsText());
+                field.put("keyCss", selector.getKeyCss());
+                field.put("valueCss", selector.getValueCss());
+                spec.add(field);
+            }
+            script = "var spec = " + new Gson().toJson(spec) + ";\n" + SCRIPT_BODY;
+            compiled.putIfAbsent(selectors, script);
+        }
+        return script;
+    }
+}
@@ -0,0 +1,283 @@
+package utils;
+
+import metrics.Metrics;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+
+import java.net.MalformedURLException;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Fixed size pool of RemoteWebDriver sessions. A session is checked out for the duration of one crawl task, so
+ * every worker drives its own browser on the grid.
+ *
+ * The pool also manages the life of its sessions:
+ * - sessions are opened in the background, a worker starts as soon as the first one is ready
+ * - a session that sat idle for SESSION_PROBE_AFTER_MILLIS is probed with a script call before it is handed out
+ * - a session is replaced after SESSION_MAX_PAGES page loads or SESSION_MAX_AGE_MILLIS, which keeps the memory of
+ *   long running browsers in check
+ * - a watchdog quits sessions whose navigation takes longer than NAVIGATION_DEADLINE_MILLIS, which makes the hung
+ *   call fail so the worker can replace the session
+ */
+public class WebDriverPool {
+    private static final Logger log = Logger.getLogger(WebDriverPool.class.getName());
+
+    // consecutive failures after which a slot is given up, e.g. the grid has fewer nodes than workers
+    private static final int MAX_CREATE_ATTEMPTS = 5;
+    private static final long CREATE_RETRY_MILLIS = 5000;
+
+    private final BlockingQueue<WebDriver> idle;
+    // every live session of this pool with its usage, for recycling, the watchdog and shutdown
+    private final ConcurrentMap<WebDriver, Session> sessions = new ConcurrentHashMap<WebDriver, Session>();
+    // sessions that are live or being opened
+    private final AtomicInteger slots;
+    // opens and quits sessions off the worker threads
+    private final ExecutorService lifecycle;
+    private final ScheduledExecutorService watchdog;
+
+    private final int maxPages;
+    private final long maxAgeMillis;
+    private final long probeAfterMillis;
+    private final long navigationDeadlineMillis;
+    private volatile boolean closed;
+
+    private static class Session {
+        final long createdMillis = System.currentTimeMillis();
+        volatile long lastUsedMillis = createdMillis;
+        volatile long navigationStartedMillis;
+        volatile boolean killed;
+        int pages;
+    }
+
+    public WebDriverPool(int size) throws MalformedURLException {
+        // fail fast on a broken grid url instead of in every background attempt
+        WebDriverUtils.checkDriverSettings();
+
+        maxPages = EnvReader.readIntEnvVariable("SESSION_MAX_PAGES", 500);
+        maxAgeMillis = EnvReader.readLongEnvVariable("SESSION_MAX_AGE_MILLIS", 3600000);
+        probeAfterMillis = EnvReader.readLongEnvVariable("SESSION_PROBE_AFTER_MILLIS", 30000);
+        navigationDeadlineMillis = EnvReader.readLongEnvVariable("NAVIGATION_DEADLINE_MILLIS", 120000);
+
+        idle = new LinkedBlockingQueue<WebDriver>(size);
+        slots = new AtomicInteger(size);
+        lifecycle = Executors.newCachedThreadPool(new NamedThreadFactory("driver-lifecycle"));
+        for (int i = 0; i < size; i++) {
+            warmUp(1);
+        }
+
+        watchdog = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("driver-watchdog"));
+        watchdog.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                killStalledNavigations();
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+        log.info("Opening " + size + " WebDriver sessions in the background");
+    }
+
+    /**
+     * Blocks until a healthy session is free.
+     */
+    public WebDriver checkout() throws InterruptedException {
+        while (true) {
+            if (slots.get() == 0) {
+                throw new IllegalStateException("No WebDriver session could be opened");
+            }
+            WebDriver driver = idle.poll(1, TimeUnit.SECONDS);
+            if (driver == null) {
+                continue;
+            }
+            Session session = sessions.get(driver);
+            if (session == null) {
+                continue;
+            }
+            if (System.currentTimeMillis() - session.lastUsedMillis > probeAfterMillis && !responds(driver)) {
+                Metrics.counter("driver.probeFailed").incrementAndGet();
+                retire(driver);
+                continue;
+            }
+            return driver;
+        }
+    }
+
+    public void checkin(WebDriver driver) {
+        Session session = sessions.get(driver);
+        if (session == null) {
+            // replaced or killed meanwhile
+            return;
+        }
+        long now = System.currentTimeMillis();
+        session.lastUsedMillis = now;
+        if (session.killed) {
+            retire(driver);
+            return;
+        }
+        if (session.pages >= maxPages || now - session.createdMillis > maxAgeMillis) {
+            Metrics.counter("driver.recycled").incrementAndGet();
+            retire(driver);
+            return;
+        }
+        idle.offer(driver);
+    }
+
+    /**
+     * Quits a broken session and opens a fresh one in its place. The caller keeps the new session checked out.
+     * If the fresh one cannot be opened, the slot is refilled in the background like a retired session's.
+     */
+    public WebDriver replace(WebDriver broken) throws MalformedURLException {
+        sessions.remove(broken);
+        quitInBackground(broken);
+        try {
+            return newSession();
+        } catch (MalformedURLException | RuntimeException e) {
+            Metrics.counter("driver.createFailed").incrementAndGet();
+            warmUp(1);
+            throw e;
+        }
+    }
+
+    /**
+     * @return whether the session was quit by the watchdog, so a failing call on it is no page error
+     */
+    public boolean wasKilled(WebDriver driver) {
+        Session session = sessions.get(driver);
+        return session == null || session.killed;
+    }
+
+    public void navigationStarted(WebDriver driver) {
+        Session session = sessions.get(driver);
+        if (session != null) {
+            session.navigationStartedMillis = System.currentTimeMillis();
+        }
+    }
+
+    public void navigationFinished(WebDriver driver) {
+        Session session = sessions.get(driver);
+        if (session != null) {
+            session.navigationStartedMillis = 0;
+            session.pages++;
+        }
+    }
+
+    public void quitAll() {
+        closed = true;
+        watchdog.shutdownNow();
+        for (WebDriver session : sessions.keySet()) {
+            quitQuietly(session);
+        }
+        sessions.clear();
+        idle.clear();
+        lifecycle.shutdown();
+    }
+
+    private WebDriver newSession() throws MalformedURLException {
+        long start = System.nanoTime();
+        WebDriver driver = WebDriverUtils.createDriver();
+        Metrics.stage("driver.create").recordSince(start);
+        sessions.put(driver, new Session());
+        return driver;
+    }
+
+    /**
+     * Opens a session in the background and adds it to the idle ones, retrying a few times if the grid is busy.
+     */
+    private void warmUp(final int attempt) {
+        if (closed) {
+            return;
+        }
+        lifecycle.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (closed) {
+                    return;
+                }
+                try {
+                    WebDriver driver = newSession();
+                    if (closed) {
+                        sessions.remove(driver);
+                        quitQuietly(driver);
+                        return;
+                    }
+                    idle.offer(driver);
+                } catch (Exception e) {
+                    Metrics.counter("driver.createFailed").incrementAndGet();
+                    if (attempt >= MAX_CREATE_ATTEMPTS) {
+                        log.info("Giving up on a WebDriver session after " + attempt + " attempts: " + e.getMessage());
+                        slots.decrementAndGet();
+                        return;
+                    }
+                    log.info("Opening a WebDriver session failed, retrying: " + e.getMessage());
+                    WebDriverUtils.sleep(CREATE_RETRY_MILLIS);
+                    warmUp(attempt + 1);
+                }
+            }
+        });
+    }
+
+    /**
+     * Quits a session and opens a replacement in the background.
+     */
+    private void retire(WebDriver driver) {
+        sessions.remove(driver);
+        quitInBackground(driver);
+        warmUp(1);
+    }
+
+    private void killStalledNavigations() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<WebDriver, Session> entry : sessions.entrySet()) {
+            Session session = entry.getValue();
+            long started = session.navigationStartedMillis;
+            if (started > 0 && !session.killed && now - started > navigationDeadlineMillis) {
+                session.killed = true;
+                Metrics.counter("driver.watchdogKilled").incrementAndGet();
+                log.info("Navigation stalled for " + (now - started) + " ms, quitting the session");
+                quitInBackground(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * A script call answers from the browser without any page load.
+     */
+    private static boolean responds(WebDriver driver) {
+        try {
+            ((JavascriptExecutor) driver).executeScript("return 1;");
+            return true;
+        } catch (Exception e) {
+            log.info("Session probe failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void quitInBackground(final WebDriver driver) {
+        if (lifecycle.isShutdown()) {
+            quitQuietly(driver);
+            return;
+        }
+        lifecycle.execute(new Runnable() {
+            @Override
+            public void run() {
+                quitQuietly(driver);
+            }
+        });
+    }
+
+    private static void quitQuietly(WebDriver driver) {
+        try {
+            driver.quit();
+        } catch (Exception e) {
+            log.info("Quitting session failed: " + e.getMessage());
+        }
+    }
+}
@@ -1,39 +1,194 @@
 package utils;
 
+import com.gargoylesoftware.htmlunit.BrowserVersion;
 import com.google.common.base.Strings;
+import metrics.Metrics;
 import org.apache.commons.lang3.StringUtils;
+import org.bson.Document;
+import org.bson.json.JsonParseException;
 import org.openqa.selenium.*;
+import org.openqa.selenium.htmlunit.HtmlUnitDriver;
 import org.openqa.selenium.interactions.Actions;
-import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.logging.LogEntry;
+import org.openqa.selenium.logging.LogType;
+import org.openqa.selenium.remote.CapabilityType;
 import org.openqa.selenium.remote.RemoteWebDriver;
 import org.openqa.selenium.safari.ConnectionClosedException;
+import org.openqa.selenium.support.ui.ExpectedCondition;
 import org.openqa.selenium.support.ui.ExpectedConditions;
+import org.openqa.selenium.support.ui.FluentWait;
 import org.openqa.selenium.support.ui.WebDriverWait;
 
 import java.net.MalformedURLException;
+import java.net.URI;
 import java.net.URL;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
-import static junit.framework.Assert.assertEquals;
-
 /**
  * WebDriver utility methods.
  */
 public abstract class WebDriverUtils {
     private static final Logger log = Logger.getLogger(WebDriverUtils.class.getName());
     private static final long DEFAULT_SLEEP_MILLIS = 2000;
+    // upper bound of a condition wait, the old fixed sleep
+    public static final long DEFAULT_WAIT_MILLIS = DEFAULT_SLEEP_MILLIS;
+    private static final long POLL_MILLIS = 100;
+    private static final String CARD_LIST_CSS = "div.id-card-list.card-list>div.card";
+    private static final long PAGE_LOAD_TIMEOUT_SECONDS = 60;
+    // the WebDriver default, which harvestCards raises for its asynchronous steps
+    private static final long SCRIPT_TIMEOUT_MILLIS = 30000;
+    // a navigation on a broken session is repeated once on its replacement
+    private static final int NAVIGATION_ATTEMPTS = 2;
+    // a card list that did not grow for this long after a scroll or click is fully expanded
+    private static final long HARVEST_QUIET_MILLIS = DEFAULT_WAIT_MILLIS;
+    // pages that keep growing, e.g. a broken show more button, must not hang the worker
+    private static final int MAX_HARVEST_STEPS = EnvReader.readIntEnvVariable("HARVEST_MAX_STEPS", 50);
+
+    /**
+     * One expansion step of a card list, run in the browser. Scrolls to the bottom, clicks show more if it is
+     * displayed and waits until cards are added or the list stayed quiet for arguments[1] ms. Returns the cards not
+     * returned by an earlier step of the same page as [id, display price] pairs, and whether the list is exhausted.
+     */
+    private static final String HARVEST_STEP_SCRIPT =
+            "var callback = arguments[arguments.length - 1];\n" +
+            "var cardCss = arguments[0];\n" +
+            "var quietMillis = arguments[1];\n" +
+            "var state = window.__cardHarvest || (window.__cardHarvest = {seen: {}});\n" +
+            "var list = document.querySelector('div.id-card-list');\n" +
+            "var button = document.getElementById('show-more-button');\n" +
+            "var before = document.querySelectorAll(cardCss).length;\n" +
+            "var finished = false, observer = null, poller = null, timer = null;\n" +
+            "\n" +
+            "function showMoreDisplayed() {\n" +
+            "  return button != null && window.getComputedStyle(button, null).getPropertyValue('display') != 'none';\n" +
+            "}\n" +
+            "function grown() {\n" +
+            "  return document.querySelectorAll(cardCss).length > before;\n" +
+            "}\n" +
+            "function collect() {\n" +
+            "  var chunk = [];\n" +
+            "  var cards = document.querySelectorAll(cardCss);\n" +
+            "  for (var i = 0; i < cards.length; i++) {\n" +
+            "    var id = cards[i].getAttribute('data-docid');\n" +
+            "    if (id && !state.seen[id]) {\n" +
+            "      state.seen[id] = true;\n" +
+            "      var price = cards[i].querySelector('div.reason-set span.display-price');\n" +
+            "      chunk.push([id, price ? price.textContent.trim() : '']);\n" +
+            "    }\n" +
+            "  }\n" +
+            "  return chunk;\n" +
+            "}\n" +
+            "function finish() {\n" +
+            "  if (finished) return;\n" +
+            "  finished = true;\n" +
+            "  if (observer) observer.disconnect();\n" +
+            "  if (poller) clearInterval(poller);\n" +
+            "  clearTimeout(timer);\n" +
+            "  var grew = grown();\n" +
+            "  callback({cards: collect(), exhausted: !grew && !showMoreDisplayed()});\n" +
+            "}\n" +
+            "\n" +
+            "window.scrollTo(0, document.body.scrollHeight);\n" +
+            "if (showMoreDisplayed()) button.click();\n" +
+            "if (grown()) {\n" +
+            "  finish();\n" +
+            "} else {\n" +
+            "  if (typeof MutationObserver != 'undefined' && list != null) {\n" +
+            "    observer = new MutationObserver(function () { if (grown()) finish(); });\n" +
+            "    observer.observe(list, {childList: true, subtree: true});\n" +
+            "  } else {\n" +
+            "    poller = setInterval(function () { if (grown()) finish(); }, 100);\n" +
+            "  }\n" +
+            "  timer = setTimeout(finish, quietMillis);\n" +
+            "}";
+
+    /**
+     * Whether the loaded page is a not found page: the Play Store's error section, or a "Not Found" title or heading.
+     */
+    private static final String NOT_FOUND_SCRIPT =
+            "var heading = document.querySelector('h1');" +
+            "return document.getElementById('error-section') != null" +
+            " || /not found/i.test(document.title)" +
+            " || (heading != null && /^\\s*not found\\s*$/i.test(heading.textContent));";
+
+    private static final ThreadLocal<WebDriver> currentDriver = new ThreadLocal<WebDriver>();
+    private static WebDriverPool pool;
+    private static BrowserProfile profile = BrowserProfile.FULL;
+    private static String pageLoadStrategy = profile.defaultPageLoadStrategy();
+    // cleared when the grid does not keep a performance log, blocked requests are then not counted
+    private static volatile boolean countsBlockedRequests = true;
+
+    /**
+     * @return the session checked out by the calling worker
+     */
+    public static WebDriver driver() {
+        return currentDriver.get();
+    }
+
+    /**
+     * @param pageLoadStrategy null for the default of the profile
+     */
+    public static void createPool(int size, BrowserProfile browserProfile, String pageLoadStrategy) throws MalformedURLException {
+        profile = browserProfile;
+        WebDriverUtils.pageLoadStrategy = pageLoadStrategy == null ? browserProfile.defaultPageLoadStrategy() : pageLoadStrategy;
+        log.info("Browser profile " + profile + " with page load strategy " + WebDriverUtils.pageLoadStrategy);
+        pool = new WebDriverPool(size);
+    }
 
-    public static WebDriver driver;
+    /**
+     * Binds a pooled session to the calling thread, blocks until one is free.
+     */
+    public static void acquireDriver() throws InterruptedException {
+        currentDriver.set(pool.checkout());
+    }
+
+    public static void releaseDriver() {
+        WebDriver driver = currentDriver.get();
+        currentDriver.remove();
+        if (driver != null) {
+            pool.checkin(driver);
+        }
+    }
 
+    public static void quitDrivers() {
+        if (pool != null) {
+            pool.quitAll();
+        }
+    }
+
+    /**
+     * Navigates the current session. If the session turns out to be gone, or was quit by the watchdog of the pool
+     * because the navigation hung, it is replaced and the navigation is tried once more on the new session.
+     */
     private static void goToUrl(String url) throws Exception {
         log.info("Navigating to " + url);
 
+        long start = System.nanoTime();
         try {
-            driver.navigate().to(url);
-
-        } catch (NoSuchSessionException | ConnectionClosedException e) {
-            createDriver();
+            for (int attempt = 1; ; attempt++) {
+                WebDriver driver = driver();
+                pool.navigationStarted(driver);
+                try {
+                    driver.navigate().to(url);
+                    return;
+                } catch (WebDriverException e) {
+                    boolean broken = e instanceof NoSuchSessionException || e instanceof ConnectionClosedException || pool.wasKilled(driver);
+                    if (!broken || attempt >= NAVIGATION_ATTEMPTS) {
+                        throw e;
+                    }
+                    Metrics.counter("driver.replaced").incrementAndGet();
+                    currentDriver.set(pool.replace(driver));
+                } finally {
+                    pool.navigationFinished(driver);
+                }
+            }
+        } finally {
+            Metrics.stage("navigation").recordSince(start);
         }
     }
 
@@ -42,36 +197,232 @@ public abstract class WebDriverUtils {
     }
 
     public static void goToUrlWithWaitInSec(String appUrl, By forLocator, long inSeconds) throws Exception {
+        HostRateLimiter rateLimiter = HostRateLimiter.forUrl(appUrl);
+        long start = System.nanoTime();
+        rateLimiter.acquire();
+        Metrics.stage("rateLimit").recordSince(start);
+
         goToUrl(appUrl);
-        WebDriverWait wait = new WebDriverWait(driver, inSeconds);
-        wait.until(ExpectedConditions.visibilityOfElementLocated(forLocator));
+        WebDriverWait wait = new WebDriverWait(driver(), inSeconds);
+        start = System.nanoTime();
+        try {
+            wait.until(ExpectedConditions.visibilityOfElementLocated(forLocator));
+        } catch (TimeoutException e) {
+            if (showsNotFoundPage()) {
+                // removed apps are an answer of the host, no sign of overload, like a 404 in HttpFetcher
+                rateLimiter.onSuccess();
+                Metrics.counter("pageLoad.notFound").incrementAndGet();
+                throw new HttpFetcher.PageNotFoundException(appUrl);
+            }
+            // error and captcha pages never show the locator either
+            rateLimiter.onFailure();
+            Metrics.counter("pageLoad.timeout").incrementAndGet();
+            throw e;
+        } finally {
+            Metrics.stage("pageLoadWait").recordSince(start);
+            if (profile == BrowserProfile.LEAN) {
+                countBlockedRequests();
+            }
+        }
+        rateLimiter.onSuccess();
+    }
+
+    /**
+     * Counts the requests of the page that failed on a host blocked by the lean profile, as profile.blocked.[kind].
+     * Reading the performance log also empties it, so it does not pile up in the browser between page loads.
+     */
+    private static void countBlockedRequests() {
+        WebDriver driver = driver();
+        if (!countsBlockedRequests || !(driver instanceof RemoteWebDriver)) {
+            return;
+        }
+        try {
+            Map<String, String> urls = new HashMap<String, String>();
+            for (LogEntry entry : driver.manage().logs().get(LogType.PERFORMANCE)) {
+                Document message = (Document) Document.parse(entry.getMessage()).get("message");
+                Document params = message == null ? null : (Document) message.get("params");
+                if (params == null) {
+                    continue;
+                }
+                String method = message.getString("method");
+                if ("Network.requestWillBeSent".equals(method)) {
+                    Document request = (Document) params.get("request");
+                    if (request != null) {
+                        urls.put(params.getString("requestId"), request.getString("url"));
+                    }
+                } else if ("Network.loadingFailed".equals(method) && !Boolean.TRUE.equals(params.getBoolean("canceled"))) {
+                    String url = urls.get(params.getString("requestId"));
+                    String kind = BrowserProfile.blockedKind(hostOf(url));
+                    if (kind != null) {
+                        Metrics.counter("profile.blocked." + kind).incrementAndGet();
+                    }
+                }
+            }
+        } catch (WebDriverException | ClassCastException | JsonParseException e) {
+            // statistics only, a grid without the log must not fail page loads
+            countsBlockedRequests = false;
+            log.info("Not counting blocked requests, the performance log is unavailable: " + e.getMessage());
+        }
     }
 
-    public static void createDriver() throws MalformedURLException {
-        String seleniumUrl = EnvReader.readEnvVariable("SELENIUM_URL", "localhost:4444");
-        log.info("Connecting to Selenium at " + seleniumUrl);
+    private static String hostOf(String url) {
+        try {
+            return url == null ? null : URI.create(url).getHost();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
 
-        driver = new RemoteWebDriver(new URL("http://" + seleniumUrl + "/wd/hub"), DesiredCapabilities.chrome());
+    private static boolean showsNotFoundPage() {
+        try {
+            return Boolean.TRUE.equals(((JavascriptExecutor) driver()).executeScript(NOT_FOUND_SCRIPT));
+        } catch (WebDriverException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Opens a session on the Selenium grid, or with WEBDRIVER=htmlunit an in-process HtmlUnit browser that needs no
+     * grid, e.g. to run crawls against a local fixture site.
+     */
+    public static WebDriver createDriver() throws MalformedURLException {
+        if (usesHtmlUnit()) {
+            log.info("Using an in-process HtmlUnit driver");
+            return new HtmlUnitDriver(BrowserVersion.CHROME, true);
+        }
+
+        URL gridUrl = gridUrl();
+        log.info("Connecting to Selenium at " + gridUrl);
+
+        RemoteWebDriver driver = new RemoteWebDriver(gridUrl, profile.capabilities(pageLoadStrategy));
+        Object granted = driver.getCapabilities().getCapability(CapabilityType.PAGE_LOAD_STRATEGY);
+        if (granted != null && !pageLoadStrategy.equals(granted)) {
+            log.info("Grid session uses page load strategy " + granted + " instead of " + pageLoadStrategy);
+        }
         driver.manage().window().maximize();
+        // the pool's watchdog is the last resort, most stalled loads end here
+        driver.manage().timeouts().pageLoadTimeout(PAGE_LOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        return driver;
+    }
 
-        // just a quick check
-        driver.get("http://google.com");
-        assertEquals("The page title should equal Google at the start of the test", "Google", driver.getTitle());
+    /**
+     * Checks the driver settings without opening a session.
+     */
+    public static void checkDriverSettings() throws MalformedURLException {
+        if (!usesHtmlUnit()) {
+            gridUrl();
+        }
+    }
+
+    private static boolean usesHtmlUnit() {
+        return "htmlunit".equalsIgnoreCase(EnvReader.readEnvVariable("WEBDRIVER", "remote"));
+    }
+
+    private static URL gridUrl() throws MalformedURLException {
+        return new URL("http://" + EnvReader.readEnvVariable("SELENIUM_URL", "localhost:4444") + "/wd/hub");
     }
 
     public static void scrollToElement(String className) {
-        WebElement element = WebDriverUtils.driver.findElement(By.className(className));
-        Actions actions = new Actions(WebDriverUtils.driver);
+        WebElement element = driver().findElement(By.className(className));
+        Actions actions = new Actions(driver());
         actions.moveToElement(element);
     }
 
-    public static void scrollDown() {
-        ((JavascriptExecutor) driver).executeScript("window.scrollTo(0, document.body.scrollHeight);");
-        sleep();
+    /**
+     * Scrolls to the bottom and waits for the given condition, at most DEFAULT_WAIT_MILLIS.
+     */
+    public static boolean scrollDown(String callSite, ExpectedCondition<?> condition) {
+        scrollToBottom();
+        return waitFor(callSite, condition, DEFAULT_WAIT_MILLIS);
+    }
+
+    private static void scrollToBottom() {
+        ((JavascriptExecutor) driver()).executeScript("window.scrollTo(0, document.body.scrollHeight);");
+    }
+
+    /**
+     * Receives the cards of a list while it is being expanded.
+     */
+    public interface CardSink {
+        /**
+         * @param cards display price by app id, only cards that were not handed over before
+         */
+        void accept(Map<String, String> cards);
+    }
+
+    /**
+     * Expands the card list of the current page completely and hands the cards to the sink in chunks as they
+     * appear. Every step is a single asynchronous script call that scrolls, clicks show more and waits for new
+     * cards in the browser, so a list costs a handful of round trips instead of several per scroll and one per card.
+     *
+     * @return whether the list was expanded completely, false if it still grew after HARVEST_MAX_STEPS steps
+     */
+    @SuppressWarnings("unchecked")
+    public static boolean harvestCards(String callSite, CardSink sink) {
+        JavascriptExecutor executor = (JavascriptExecutor) driver();
+        WebDriver.Timeouts timeouts = driver().manage().timeouts();
+        timeouts.setScriptTimeout(HARVEST_QUIET_MILLIS + DEFAULT_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+
+        int total = 0;
+        boolean exhausted = false;
+        try {
+            for (int step = 0; step < MAX_HARVEST_STEPS; step++) {
+                long start = System.nanoTime();
+                Map<String, Object> result = (Map<String, Object>) executor.executeAsyncScript(HARVEST_STEP_SCRIPT, CARD_LIST_CSS, HARVEST_QUIET_MILLIS);
+                Metrics.stage("harvest." + callSite).recordSince(start);
+
+                List<List<Object>> cards = (List<List<Object>>) result.get("cards");
+                if (cards != null && !cards.isEmpty()) {
+                    Map<String, String> chunk = new LinkedHashMap<String, String>();
+                    for (List<Object> card : cards) {
+                        chunk.put(String.valueOf(card.get(0)), String.valueOf(card.get(1)));
+                    }
+                    total += chunk.size();
+                    sink.accept(chunk);
+                }
+                if (Boolean.TRUE.equals(result.get("exhausted"))) {
+                    exhausted = true;
+                    break;
+                }
+            }
+        } finally {
+            // the timeout applies to the whole session, other scripts must not wait this long
+            timeouts.setScriptTimeout(SCRIPT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        Metrics.counter("harvest." + callSite + ".cards").addAndGet(total);
+        log.info("Number of ids extracted: " + total);
+        if (!exhausted) {
+            Metrics.counter("harvest." + callSite + ".truncated").incrementAndGet();
+            log.info("Card list still growing after " + MAX_HARVEST_STEPS + " steps, stopped at " + total + " cards: "
+                    + driver().getCurrentUrl());
+        }
+        return exhausted;
+    }
+
+    /**
+     * Polls the condition every POLL_MILLIS until it holds or maxMillis passed and records the time actually
+     * waited under the call site.
+     *
+     * @return whether the condition was met
+     */
+    public static boolean waitFor(String callSite, ExpectedCondition<?> condition, long maxMillis) {
+        long start = System.nanoTime();
+        boolean met = true;
+        try {
+            new FluentWait<WebDriver>(driver())
+                    .withTimeout(maxMillis, TimeUnit.MILLISECONDS)
+                    .pollingEvery(POLL_MILLIS, TimeUnit.MILLISECONDS)
+                    .ignoring(NoSuchElementException.class, StaleElementReferenceException.class)
+                    .until(condition);
+        } catch (TimeoutException e) {
+            met = false;
+        }
+        Metrics.recordWait(callSite, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), met);
+        return met;
     }
 
     public static boolean checkWithinView(WebElement element) {
-        return (Boolean) ((JavascriptExecutor) driver).executeScript("function elementInViewport(el) {\n" +
+        return (Boolean) ((JavascriptExecutor) driver()).executeScript("function elementInViewport(el) {\n" +
                 "  var top = el.offsetTop;\n" +
                 "  var left = el.offsetLeft;\n" +
                 "  var width = el.offsetWidth;\n" +
@@ -94,7 +445,7 @@ public abstract class WebDriverUtils {
     }
 
     public static String getComputedStyleProperty(WebElement element, String property) {
-        JavascriptExecutor executor = (JavascriptExecutor) driver;
+        JavascriptExecutor executor = (JavascriptExecutor) driver();
         return String.valueOf(executor.executeScript("return window.getComputedStyle(arguments[0], null).getPropertyValue(arguments[1])"
                 , element, property));
     }
@@ -112,7 +463,7 @@ public abstract class WebDriverUtils {
     }
 
     public static void clickOnElementWithJs(WebElement element) {
-        JavascriptExecutor executor = (JavascriptExecutor) driver;
+        JavascriptExecutor executor = (JavascriptExecutor) driver();
         executor.executeScript("arguments[0].click();", element);
     }
 
@@ -138,7 +489,7 @@ public abstract class WebDriverUtils {
 
     public static String extractElementsAttributeIfFound(By by, String attribute, String strIfNotFound) {
         try {
-            return extractAttribute(driver.findElement(by), attribute, strIfNotFound);
+            return extractAttribute(driver().findElement(by), attribute, strIfNotFound);
 
         } catch (Exception e) {
             return strIfNotFound;
@@ -156,7 +507,7 @@ public abstract class WebDriverUtils {
 
     public static String extractElementContentIfFound(By by, String strIfNotFound) {
         try {
-            return extractText(driver.findElement(by), strIfNotFound);
+            return extractText(driver().findElement(by), strIfNotFound);
 
         } catch (Exception e) {
             return strIfNotFound;
@@ -171,10 +522,4 @@ public abstract class WebDriverUtils {
         String text = StringUtils.trimToNull(toTrim);
         return text == null ? str2 : text;
     }
-
-    public static List<WebElement> getCardList() {
-        List<WebElement> cards = driver.findElements(By.cssSelector("div.id-card-list.card-list>div.card"));
-        log.info("Number of cards extracted: " + cards.size());
-        return cards;
-    }
 }
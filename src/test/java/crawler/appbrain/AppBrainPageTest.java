@@ -0,0 +1,73 @@
+package crawler.appbrain;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import utils.HtmlExtractor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import static crawler.appbrain.AppBrainInfo.*;
+import static org.junit.Assert.*;
+
+/**
+ * Extracts a saved AppBrain app page through HtmlExtractor and checks the mapping onto AppBrainInfo.
+ */
+public class AppBrainPageTest {
+
+    private static final String APP_ID = "com.example.planner";
+
+    private static AppBrainInfo appBrainInfo;
+
+    @BeforeClass
+    public static void extractFixture() throws IOException {
+        InputStream in = AppBrainPageTest.class.getResourceAsStream("/fixtures/appbrain.html");
+        try {
+            Document page = Jsoup.parse(in, "UTF-8", "https://www.appbrain.com/app/" + APP_ID);
+            appBrainInfo = AppBrainPage.toAppBrainInfo(HtmlExtractor.extract(page, AppBrainPage.SELECTORS), APP_ID);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void readsInfotiles() {
+        assertEquals(APP_ID, appBrainInfo.getAppId());
+        assertEquals("#37 in Productivity", appBrainInfo.getRanking());
+        assertEquals(14, appBrainInfo.getLibraries());
+        assertEquals("12.4MB", appBrainInfo.getSize());
+        assertEquals("3 years old", appBrainInfo.getAge());
+    }
+
+    @Test
+    public void parsesNumericForms() {
+        assertEquals(Integer.valueOf(37), appBrainInfo.getRank());
+        assertEquals(Long.valueOf((long) (12.4 * 1024 * 1024)), appBrainInfo.getSizeBytes());
+        assertEquals(Long.valueOf(3 * 365 * 86400000L), appBrainInfo.getAgeMillis());
+    }
+
+    @Test
+    public void readsTagClouds() {
+        Map<String, String> commentsTag = appBrainInfo.getCommentsTag();
+        assertEquals("easy reminders sync widget calendar lists sharing simple clean fast ", commentsTag.get(COMMENTS_TAG));
+        assertEquals("love useful great design reliable best planner organized ", commentsTag.get(POSITIVE_COMMENT_TAG));
+        assertEquals("battery crash ads slow sync login ", commentsTag.get(NEGATIVE_COMMENT_TAG));
+    }
+
+    @Test
+    public void readsPermissionGroups() {
+        Map<String, String> permissions = appBrainInfo.getResourcePermissions();
+        assertEquals(5, permissions.size());
+        assertEquals("take pictures and videos", permissions.get("Camera"));
+        assertEquals("approximate location (network-based), precise location (GPS and network-based)", permissions.get("Location"));
+    }
+
+    @Test
+    public void unparsableLibrariesCountAsNone() {
+        assertEquals(0, AppBrainPage.parseLibraries(""));
+        assertEquals(0, AppBrainPage.parseLibraries("many"));
+    }
+}
@@ -0,0 +1,115 @@
+package crawler.appinfo;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import utils.HtmlExtractor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Extracts a saved Play Store details page through HtmlExtractor and checks the mapping onto AppInfo.
+ */
+public class AppInfoPageTest {
+
+    private static final String APP_URL = "https://play.google.com/store/apps/details?id=com.example.planner";
+
+    private static Map<String, Object> values;
+    private static AppInfo appInfo;
+
+    @BeforeClass
+    public static void extractFixture() throws IOException {
+        InputStream in = AppInfoPageTest.class.getResourceAsStream("/fixtures/appinfo.html");
+        try {
+            Document page = Jsoup.parse(in, "UTF-8", APP_URL);
+            values = HtmlExtractor.extract(page, AppInfoPage.SELECTORS);
+            appInfo = AppInfoPage.toAppInfo(values, APP_URL);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void readsIdentityFromUrlAndTitle() {
+        assertEquals("com.example.planner", appInfo.getId());
+        assertEquals("com.example.planner", appInfo.getLinkName());
+        assertEquals("Task Planner Pro", appInfo.getName());
+        assertEquals(APP_URL, appInfo.getAppUrl());
+    }
+
+    @Test
+    public void readsHeaderFields() {
+        assertEquals(2.49, appInfo.getPrice(), 0.001);
+        assertEquals(4.4, appInfo.getStarRating(), 0.001);
+        assertEquals("Example Labs", appInfo.getAuthor());
+        assertEquals("Productivity", appInfo.getCategory());
+        assertEquals("Top Developer", appInfo.getBadge());
+        assertEquals("Offers in-app purchases", appInfo.getOffersInAppPurchases());
+    }
+
+    @Test
+    public void readsReviewCounts() {
+        assertEquals(123456, appInfo.getTotalNrOfReviews());
+        assertEquals("1 stars: 8140 2 stars: 4120 3 stars: 9874 4 stars: 21310 5 stars: 80012 ",
+                appInfo.getReviewsPerStarString());
+    }
+
+    @Test
+    public void stripsLabelsFromTexts() {
+        assertEquals("Keep track of every task, list and reminder across all your devices.", appInfo.getDescription());
+        assertEquals("Sync fixes and a new calendar widget.", appInfo.getWhatsNew());
+        assertTrue(appInfo.getUserComments().startsWith("Review 0: works fine on my phone"));
+        assertTrue(appInfo.getUserComments().contains(" Review 1: works fine on my phone"));
+    }
+
+    @Test
+    public void readsMetaInfo() {
+        assertEquals("July 14, 2017", appInfo.getLastUpdated());
+        assertEquals("12M", appInfo.getSize());
+        assertEquals("1,000,000 - 5,000,000", appInfo.getInstalls());
+        assertEquals("5.2.1", appInfo.getCurrentVersion());
+        assertEquals("4.1 and up", appInfo.getRequiredAndroidVersion());
+        assertEquals("Everyone", appInfo.getContentRating());
+        assertEquals("$0.99 - $9.99 per item", appInfo.getInAppProducts());
+    }
+
+    @Test
+    public void parsesNumericForms() {
+        assertEquals(Long.valueOf(1000000), appInfo.getInstallsMin());
+        assertEquals(Long.valueOf(5000000), appInfo.getInstallsMax());
+        assertEquals(Long.valueOf(12 * 1024 * 1024), appInfo.getSizeBytes());
+        assertNotNull(appInfo.getLastUpdatedMillis());
+    }
+
+    @Test
+    public void resolvesSimilarAppsLink() {
+        assertTrue(AppInfoPage.similarAppsUrl(values).endsWith("/store/apps/collection/similar_apps_GIDa?clp=ogoKCAEqAggBUgIIAQ%3D%3D"));
+    }
+
+    @Test
+    public void leavesBrowserOnlyFieldsUnset() {
+        assertNull(appInfo.getPermissions());
+        assertNull(appInfo.getSimilarApps());
+    }
+
+    @Test
+    public void leavesUnknownPermissionsOutOfTheDocument() {
+        assertFalse(appInfo.convertToDocument().containsKey(AppInfo.PERMISSIONS));
+    }
+
+    @Test
+    public void missingFieldsFallBackToDefaults() {
+        Document empty = Jsoup.parse("<html><body><div class=\"id-app-title\">Empty</div></body></html>", APP_URL);
+        AppInfo sparse = AppInfoPage.toAppInfo(HtmlExtractor.extract(empty, AppInfoPage.SELECTORS), APP_URL);
+        assertEquals("Empty", sparse.getName());
+        assertEquals(0.0, sparse.getPrice(), 0.001);
+        assertEquals(0, sparse.getTotalNrOfReviews());
+        assertEquals("", sparse.getInstalls());
+        assertNull(sparse.getInstallsMin());
+    }
+}